@@ -34,24 +34,40 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.CharBuffer;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.lang.StringUtils;
 import org.braiden.fpm2.FpmCrypt.FpmCipherUnsupportedException;
 import org.braiden.fpm2.FpmCrypt.FpmPassphraseInvalidException;
+import org.braiden.fpm2.crypto.CryptoProviderSelector;
+import org.braiden.fpm2.crypto.DerivedKey;
+import org.braiden.fpm2.crypto.DerivedKeyCache;
+import org.braiden.fpm2.crypto.FpmBase16;
+import org.braiden.fpm2.crypto.FpmKeyGenerator;
+import org.braiden.fpm2.crypto.WrappedKey;
+import org.braiden.fpm2.model.FpmFile;
 import org.braiden.fpm2.model.PasswordItem;
 import org.braiden.fpm2.util.IOUtils;
+import org.braiden.fpm2.util.OperationCanceledException;
+import org.braiden.fpm2.util.ProgressMonitor;
+import org.braiden.fpm2.xml.FpmFileXmlParser;
 import org.xml.sax.SAXException;
 
 import android.app.Application;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.preference.PreferenceManager;
@@ -74,6 +90,8 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 	public static final String ACTION_FPM_LOCK = "org.braiden.fpm2.FPM_LOCKED";
 	// Action (Intent) published when the FPM database has failed to open
 	public static final String ACTION_FPM_FAIL = "org.braiden.fpm2.FPM_FAILED";
+	// Action (Intent) published as an unlock operation makes progress
+	public static final String ACTION_FPM_PROGRESS = "org.braiden.fpm2.FPM_PROGRESS";
 	
 	// the crypt is locked, and must be openned with passphrase before access
 	public static final int STATE_LOCKED = 0;
@@ -89,22 +107,47 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 	public static final String PREF_LAUNCH_DEFAULT = "fpm_default_action_launch";
 	public static final String PREF_SD_LOCATION = "fpm_sd_location";
 	public static final String PREF_USE_INTERNAL_STORAGE = "fpm_internal_storage";
+	public static final String PREF_KEY_CACHE = "fpm_key_cache";
+	public static final String PREF_SPECULATIVE_UNLOCK = "fpm_speculative_unlock";
+	public static final String PREF_OPTIMISTIC_UNLOCK = "fpm_optimistic_unlock";
+	public static final String PREF_QUICK_UNLOCK = "fpm_quick_unlock";
+	// JCE providers picked by CryptoProviderSelector, and the device (Build.FINGERPRINT) they were picked on
+	public static final String PREF_MAC_PROVIDER = "fpm_mac_provider";
+	public static final String PREF_CIPHER_PROVIDER = "fpm_cipher_provider";
+	public static final String PREF_PROVIDER_DEVICE = "fpm_provider_device";
 	
 	public static final String EXTRA_MSG = "org.braiden.fpm2.EXTRA_MESSAGE";
+	// progress of unlock, percent 0 - 100
+	public static final String EXTRA_PROGRESS = "org.braiden.fpm2.EXTRA_PROGRESS";
 	
 	// default location if the FPM databased (XML) file
 	public static final String DEFAULT_FPM_FILE = "fpm"; 
 	public static final String PRIVATE_FPM_FILE = "fpm.xml";
 	
+	// how long a key derived while passphrase was being typed is kept
+	public static final long SPECULATIVE_KEY_TTL = 30L * 1000L;
+	
 	protected static final String TAG = "FpmApplication";
 	
 	protected FpmCrypt fpmCrypt = new FpmCrypt();
 	
+	private DerivedKeyCache keyCache = new DerivedKeyCache();
 	private Handler handler;
 	private Timer autoLockTimer = null;
 	private SharedPreferences prefs;
 	private int failureMsg = 0;
 	private FpmFileLocator fileLocator = new DefaultFpmFileLocator();
+	private SpeculativeKeyThread speculativeKeyThread = null;
+	// speculations started, and still running, for selectCryptoProviders()
+	private final AtomicInteger speculationsStarted = new AtomicInteger();
+	private final AtomicInteger speculationsRunning = new AtomicInteger();
+	volatile private WrappedKey quickUnlockKey = null;
+	private int unlockProgress = 0;
+	// unlocks run one at a time on this thread, unlockJob is the latest
+	private ExecutorService unlockExecutor;
+	private UnlockJob unlockJob = null;
+	// vstring check of an optimistic unlock, also on unlockExecutor
+	private VerifyJob verifyJob = null;
 	// The ListView filter accesses fpm application from
 	// another thread where filtering occurs. None
 	// of the methods of this class are syncrhonized, we
@@ -117,8 +160,13 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 	public void onCreate() {
 		super.onCreate();
 		handler = new Handler(getMainLooper());
+		unlockExecutor = Executors.newSingleThreadExecutor();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 		prefs.registerOnSharedPreferenceChangeListener(this);
+		keyCache.setTimeToLive(getKeyCacheMilliseconds());
+		fpmCrypt.setKeyCache(keyCache);
+		fpmCrypt.setDecryptThreads(Runtime.getRuntime().availableProcessors());
+		selectCryptoProviders();
 	}
 
 	@Override
@@ -127,6 +175,12 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 			autoLockTimer.cancel();
 		}
 		prefs.unregisterOnSharedPreferenceChangeListener(this);
+		cancelSpeculativeKey();
+		cancelOpenCrypt();
+		cancelVerify();
+		unlockExecutor.shutdown();
+		discardQuickUnlock();
+		keyCache.clear();
 		super.onTerminate();
 	}
 	
@@ -134,6 +188,11 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
 		if (PREF_AUTOLOCK.equals(key)) {
 			scheduleAutoLock();
+		} else if (PREF_KEY_CACHE.equals(key)) {
+			keyCache.setTimeToLive(getKeyCacheMilliseconds());
+		} else if (PREF_QUICK_UNLOCK.equals(key)) {
+			// idle time changed, or quick unlock disabled
+			hasQuickUnlock();
 		}
 	}
 
@@ -166,65 +225,297 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 		return state == STATE_UNLOCKED;
 	}
 	
+	/**
+	 * Progress of the current unlock operation.
+	 * 
+	 * @return percent complete, 0 - 100
+	 */
+	public int getUnlockProgress() {
+		return unlockProgress;
+	}
+	
 	/**
 	 * Try to unlock the store. This call is asynchronous and will result
 	 * in a broadcast event being dispatched when the FPM state is updated.
-	 * Multiple calls should have no effect.
+	 * ACTION_FPM_PROGRESS is broadcast as the unlock progresses. Repeating
+	 * the call while the same passphrase is being checked has no effect,
+	 * a different passphrase cancels and replaces the running unlock.
 	 * @param passphrase
 	 */
 	public void openCrypt(String passphrase) {
+		openCrypt(passphrase, null);
+	}
+	
+	/**
+	 * Same as openCrypt(passphrase). Additionally, if quick unlock
+	 * is enabled and pin is not empty, the key is wrapped under pin
+	 * once the store is open, for later use by openCryptWithPin().
+	 * 
+	 * @param passphrase
+	 * @param pin
+	 */
+	public void openCrypt(String passphrase, String pin) {
 		
-		if (state != STATE_LOCKED && state != STATE_FAILED) {
-			// the store is either already open, or busy
-			// nothing to do here.
+		if (isUnlockInProgress(passphrase, null)) {
+			// same request from another (or recreated) activity,
+			// it will receive the result of the running unlock.
 			return;
 		}
 		
-		AsyncTask<String, Void, Integer> task = new AsyncTask<String, Void, Integer>() {
-
-			@Override
-			protected Integer doInBackground(String... params) {
-				int result = 0;
-				String passphrase = params[0];
-				String fpmFile = params[1];
-				
-				try {
-					fpmCrypt.open(fileLocator.open(fpmFile), passphrase);
-				} catch (FileNotFoundException e) {
-					result = R.string.exception_file_not_found;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				} catch (IOException e) {
-					result = R.string.exception_io;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				} catch (SAXException e) {
-					result = R.string.exception_sax;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				} catch (GeneralSecurityException e) {
-					result = R.string.exception_jce;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				} catch (FpmCipherUnsupportedException e) {
-					result = R.string.exception_fpm_unsupported;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				} catch (FpmPassphraseInvalidException e) {
-					result = R.string.exception_fpm_passphrase;
-					Log.w(TAG, "Failed to open FPM database.", e);
-				}
-				
-				return result;
+		if (state != STATE_LOCKED && state != STATE_FAILED && state != STATE_BUSY) {
+			// the store is already open, nothing to do here.
+			return;
+		}
+		
+		// if the key for this passphrase is already being derived
+		// in the background, wait for it rather than starting over.
+		SpeculativeKeyThread speculation = speculativeKeyThread;
+		speculativeKeyThread = null;
+		if (speculation != null && !speculation.isFor(passphrase)) {
+			speculation.cancel();
+			speculation = null;
+		}
+		
+		startOpenCrypt(passphrase, isQuickUnlockEnabled() ? pin : null, speculation);
+	}
+	
+	/**
+	 * Unlock the store with the quick unlock PIN, instead of the
+	 * passphrase. Asynchronous, like openCrypt(). A wrong PIN fails
+	 * the same way as a wrong passphrase, and after
+	 * WrappedKey.DEFAULT_MAX_ATTEMPTS wrong PINs quick unlock is
+	 * discarded.
+	 * 
+	 * @param pin
+	 */
+	public void openCryptWithPin(String pin) {
+		if (isUnlockInProgress(null, pin)
+				|| (state != STATE_LOCKED && state != STATE_FAILED && state != STATE_BUSY)) {
+			return;
+		}
+		cancelSpeculativeKey();
+		startOpenCrypt(null, pin, null);
+	}
+	
+	/**
+	 * True if openCryptWithPin() can be used.
+	 * 
+	 * @return
+	 */
+	public boolean hasQuickUnlock() {
+		WrappedKey quickUnlockKey = this.quickUnlockKey;
+		if (quickUnlockKey == null) {
+			return false;
+		}
+		long idle = getQuickUnlockMilliseconds();
+		if (idle <= 0 || quickUnlockKey.isDestroyed() || quickUnlockKey.isIdle(idle)) {
+			discardQuickUnlock();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Number of PIN attempts left before quick unlock is discarded.
+	 * 
+	 * @return
+	 */
+	public int getQuickUnlockAttemptsRemaining() {
+		WrappedKey quickUnlockKey = this.quickUnlockKey;
+		return quickUnlockKey == null ? 0 : quickUnlockKey.getAttemptsRemaining();
+	}
+	
+	/**
+	 * Forget the wrapped key, next unlock will require the passphrase.
+	 */
+	public void discardQuickUnlock() {
+		WrappedKey quickUnlockKey = this.quickUnlockKey;
+		this.quickUnlockKey = null;
+		if (quickUnlockKey != null) {
+			quickUnlockKey.destroy();
+		}
+	}
+	
+	public boolean isQuickUnlockEnabled() {
+		return getQuickUnlockMilliseconds() > 0;
+	}
+	
+	/**
+	 * True if an unlock for the current file and the given passphrase
+	 * (or PIN, if passphrase is null) is running.
+	 */
+	private boolean isUnlockInProgress(String passphrase, String pin) {
+		UnlockJob job = unlockJob;
+		return state == STATE_BUSY && job != null
+				&& job.isFor(getExternalStorageFpmFilePath(), passphrase, pin);
+	}
+	
+	/**
+	 * Queue an UnlockJob, replacing any running one. With a passphrase
+	 * the key is generated, otherwise pin unwraps the quick unlock key.
+	 */
+	private void startOpenCrypt(String passphrase, String pin, SpeculativeKeyThread speculation) {
+		if (unlockJob != null) {
+			// superseded, its result will be ignored.
+			unlockJob.cancel();
+		}
+		boolean isOptimistic = prefs.getBoolean(PREF_OPTIMISTIC_UNLOCK, false);
+		unlockJob = new UnlockJob(getExternalStorageFpmFilePath(), passphrase, pin, isOptimistic, speculation);
+		state = STATE_BUSY;
+		unlockProgress = 0;
+		unlockExecutor.execute(unlockJob);
+	}
+	
+	/**
+	 * Called on UI thread as the given job progresses.
+	 */
+	private void onUnlockProgress(UnlockJob job, int percent) {
+		if (job == unlockJob) {
+			unlockProgress = percent;
+			Intent broadcast = new Intent(ACTION_FPM_PROGRESS);
+			broadcast.putExtra(EXTRA_PROGRESS, unlockProgress);
+			sendBroadcast(broadcast);
+		}
+	}
+	
+	/**
+	 * Called on UI thread once the given job is done. Result is
+	 * 0 for success, UnlockJob.RESULT_CANCELED, or an error message.
+	 */
+	private void onUnlockFinished(UnlockJob job, int result) {
+		if (job != unlockJob) {
+			// a newer unlock replaced this one
+			return;
+		}
+		unlockJob = null;
+		if (result == UnlockJob.RESULT_CANCELED) {
+			// canceled by user
+			failureMsg = 0;
+			state = STATE_LOCKED;
+		} else {
+			failureMsg = result;
+			state = result == 0 ? STATE_UNLOCKED : STATE_FAILED;
+		}
+		broadcastState();
+		scheduleAutoLock();
+		if (state == STATE_UNLOCKED && !fpmCrypt.isVerified()) {
+			// unlocked optimistically, finish checking the vstring
+			verifyJob = new VerifyJob();
+			unlockExecutor.execute(verifyJob);
+		}
+	}
+	
+	/**
+	 * Called on UI thread once the given job is done. Result is
+	 * 0 if the vstring matched, UnlockJob.RESULT_CANCELED, or an
+	 * error message, in which case the crypt is locked again.
+	 */
+	private void onVerifyFinished(VerifyJob job, int result) {
+		if (job != verifyJob) {
+			// crypt was closed since
+			return;
+		}
+		verifyJob = null;
+		if (result != 0 && result != UnlockJob.RESULT_CANCELED && state == STATE_UNLOCKED) {
+			fpmCrypt.close();
+			// the key may be wrong, don't reuse it
+			keyCache.clear();
+			discardQuickUnlock();
+			failureMsg = result;
+			state = STATE_FAILED;
+			broadcastState();
+		}
+	}
+	
+	/**
+	 * Stop a running VerifyJob, its result is ignored.
+	 */
+	private void cancelVerify() {
+		if (verifyJob != null) {
+			verifyJob.cancel();
+			verifyJob = null;
+		}
+	}
+	
+	/**
+	 * Called from background task to open fpmCrypt using the quick
+	 * unlock key.
+	 */
+	private void openWithQuickUnlockKey(InputStream inputStream, String pin, ProgressMonitor monitor) throws IOException, SAXException,
+			GeneralSecurityException, FpmCipherUnsupportedException, FpmPassphraseInvalidException {
+		WrappedKey quickUnlockKey = this.quickUnlockKey;
+		byte[] key = quickUnlockKey == null ? null : quickUnlockKey.unwrap(pin);
+		if (key == null) {
+			discardQuickUnlock();
+			throw new FpmPassphraseInvalidException("Quick unlock is not available.");
+		}
+		try {
+			fpmCrypt.openWithKey(inputStream, key, monitor);
+			quickUnlockKey.resetAttempts();
+		} catch (FpmPassphraseInvalidException e) {
+			// no way to tell a wrong PIN from
+			// a good one, other than the vstring.
+			if (quickUnlockKey.getAttemptsRemaining() <= 0) {
+				discardQuickUnlock();
 			}
-
+			throw e;
+		} finally {
+			Arrays.fill(key, (byte)0);
+		}
+	}
+	
+	/**
+	 * Abort an unlock started by openCrypt(). The unlock stops
+	 * at its next progress check, and the crypt returns to
+	 * STATE_LOCKED (ACTION_FPM_LOCK is broadcast).
+	 */
+	public void cancelOpenCrypt() {
+		if (state == STATE_BUSY && unlockJob != null) {
+			unlockJob.cancel();
+		}
+	}
+	
+	/**
+	 * Start generating the key for a passphrase which has not yet
+	 * been submitted (e.g. user paused while typing). The key is
+	 * held by the speculation (never the shared key cache) for
+	 * SPECULATIVE_KEY_TTL, where openCrypt() will take it if the
+	 * passphrase matches. Any earlier speculation is cancelled
+	 * and its result discarded.
+	 * 
+	 * @param passphrase
+	 */
+	public void speculateKey(String passphrase) {
+		cancelSpeculativeKey();
+		
+		if ((state != STATE_LOCKED && state != STATE_FAILED)
+				|| passphrase == null || passphrase.length() == 0
+				|| !prefs.getBoolean(PREF_SPECULATIVE_UNLOCK, true)) {
+			return;
+		}
+		
+		final SpeculativeKeyThread speculation = new SpeculativeKeyThread(passphrase, getExternalStorageFpmFilePath());
+		speculativeKeyThread = speculation;
+		speculation.start();
+		handler.postDelayed(new Runnable() {
 			@Override
-			protected void onPostExecute(Integer result) {
-				FpmApplication.this.failureMsg = result;
-				FpmApplication.this.state = result == 0 ? STATE_UNLOCKED : STATE_FAILED;
-				broadcastState();
-				scheduleAutoLock();
+			public void run() {
+				// not used in time, wipe it
+				if (speculativeKeyThread == speculation) {
+					cancelSpeculativeKey();
+				}
 			}
-			
-		};
-		
-		state = STATE_BUSY;
-		task.execute(passphrase, getExternalStorageFpmFilePath());
+		}, SPECULATIVE_KEY_TTL);
+	}
+	
+	/**
+	 * Cancel and discard any key being generated by speculateKey().
+	 */
+	public void cancelSpeculativeKey() {
+		if (speculativeKeyThread != null) {
+			speculativeKeyThread.cancel();
+			speculativeKeyThread = null;
+		}
 	}
 	
 	/**
@@ -232,6 +523,7 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 	 * passphrase again, before accessing any data. 
 	 */
 	public void closeCrypt() {
+		cancelVerify();
 		if (state == STATE_UNLOCKED) {
 			fpmCrypt.close();
 			state = STATE_LOCKED;
@@ -262,6 +554,36 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 		}
 	}
 	
+	/**
+	 * Decrypt the given string into a new char[], which the caller
+	 * should wipe (Arrays.fill) when done with it. The returned
+	 * buffer is ready to read, its array holds the plain text from
+	 * 0 to limit().
+	 * 
+	 * @param s
+	 * @return
+	 */
+	public CharBuffer decryptChars(String s) {
+		if (isCryptOpen()) {
+			CharBuffer result = null;
+			try {
+				// decodedLength() rejects malformed data too
+				result = CharBuffer.allocate(FpmBase16.decodedLength(s.length()));
+				fpmCrypt.decrypt(s, result);
+				result.flip();
+				return result;
+			} catch (Exception e) {
+				if (result != null) {
+					Arrays.fill(result.array(), '\0');
+				}
+				Log.w(TAG, "Failed to decrypt String.", e);
+				return null;
+			}
+		} else {
+			return null;
+		}
+	}
+	
 	public Set<String> getCategories() {
 		if (isCryptOpen()) {
 			return fpmCrypt.getCategories();
@@ -374,6 +696,73 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 		return result;
 	}
 	
+	private long getKeyCacheMilliseconds() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		String stringResult = prefs.getString(PREF_KEY_CACHE, null);
+		long result = 0;
+		try {
+			result = stringResult == null ? 0L : (Long.parseLong(stringResult) * 1000L);
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "\"" + PREF_KEY_CACHE + "\" has invalid value \"" + stringResult + "\". Key cache will be disabled.");
+		}
+		return result;
+	}
+	
+	/**
+	 * Use the JCE providers calibrated earlier on this device.
+	 * If there are none (first run, or the OS was updated), time
+	 * the providers on unlockExecutor, so no unlock runs at the
+	 * same time, and save the result. A result measured while a
+	 * speculative key was being derived is skewed, it is neither
+	 * used nor saved, and calibration runs again on next start.
+	 * Until then, the default providers are used.
+	 */
+	private void selectCryptoProviders() {
+		if (Build.FINGERPRINT.equals(prefs.getString(PREF_PROVIDER_DEVICE, null))) {
+			CryptoProviderSelector.setMacProvider(prefs.getString(PREF_MAC_PROVIDER, null));
+			CryptoProviderSelector.setCipherProvider(prefs.getString(PREF_CIPHER_PROVIDER, null));
+			return;
+		}
+		
+		unlockExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				int started = speculationsStarted.get();
+				if (speculationsRunning.get() > 0) {
+					// would be skewed, try again on next start
+					return;
+				}
+				String macProvider = CryptoProviderSelector.selectMacProvider();
+				String cipherProvider = CryptoProviderSelector.selectCipherProvider();
+				if (speculationsRunning.get() > 0 || speculationsStarted.get() != started) {
+					Log.i(TAG, "Key derived while calibrating, crypto providers not selected.");
+					return;
+				}
+				CryptoProviderSelector.setMacProvider(macProvider);
+				CryptoProviderSelector.setCipherProvider(cipherProvider);
+				Log.i(TAG, "Selected Mac provider \"" + macProvider
+						+ "\", Cipher provider \"" + cipherProvider + "\".");
+				prefs.edit()
+					.putString(PREF_MAC_PROVIDER, macProvider)
+					.putString(PREF_CIPHER_PROVIDER, cipherProvider)
+					.putString(PREF_PROVIDER_DEVICE, Build.FINGERPRINT)
+					.commit();
+			}
+		});
+	}
+	
+	private long getQuickUnlockMilliseconds() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		String stringResult = prefs.getString(PREF_QUICK_UNLOCK, null);
+		long result = 0;
+		try {
+			result = stringResult == null ? 0L : (Long.parseLong(stringResult) * 1000L);
+		} catch (NumberFormatException e) {
+			Log.w(TAG, "\"" + PREF_QUICK_UNLOCK + "\" has invalid value \"" + stringResult + "\". Quick unlock will be disabled.");
+		}
+		return result;
+	}
+	
 	private String getExternalStorageFpmFilePath() {
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 		String path = prefs.getString(PREF_SD_LOCATION, null);
@@ -384,11 +773,309 @@ public class FpmApplication extends Application implements OnSharedPreferenceCha
 		return path;
 	}
 
+	private static boolean isEqual(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+	
 	private boolean isInternalStorageEnabled() {
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 		return prefs.getBoolean(PREF_USE_INTERNAL_STORAGE, true);
 	}
 	
+	/**
+	 * One unlock, run on unlockExecutor. The job outlives the
+	 * activity which started it, UI reattaches through the state
+	 * and progress broadcasts.
+	 */
+	private class UnlockJob implements Runnable {
+		
+		public static final int RESULT_CANCELED = -1;
+		
+		private final String fpmFile;
+		private final String passphrase;
+		private final String pin;
+		private final boolean isOptimistic;
+		private final SpeculativeKeyThread speculation;
+		private volatile boolean isCanceled = false;
+		private final ProgressMonitor monitor = new ProgressMonitor() {
+			private int lastPercent = 0;
+			
+			@Override
+			public void setProgress(float fraction) {
+				final int percent = (int) (fraction * 100.0f);
+				if (percent != lastPercent) {
+					lastPercent = percent;
+					handler.post(new Runnable() {
+						@Override
+						public void run() {
+							onUnlockProgress(UnlockJob.this, percent);
+						}
+					});
+				}
+			}
+			
+			@Override
+			public boolean isCanceled() {
+				return isCanceled;
+			}
+		};
+		
+		public UnlockJob(String fpmFile, String passphrase, String pin, boolean isOptimistic, SpeculativeKeyThread speculation) {
+			this.fpmFile = fpmFile;
+			this.passphrase = passphrase;
+			this.pin = pin;
+			this.isOptimistic = isOptimistic;
+			this.speculation = speculation;
+		}
+		
+		/**
+		 * True if this job would give the same result as a new job with
+		 * these arguments. A PIN only matters when passphrase is null,
+		 * a passphrase unlock wrapping a new PIN is the same unlock.
+		 */
+		public boolean isFor(String fpmFile, String passphrase, String pin) {
+			return !isCanceled
+					&& isEqual(this.fpmFile, fpmFile)
+					&& isEqual(this.passphrase, passphrase)
+					&& (passphrase != null || isEqual(this.pin, pin));
+		}
+		
+		public void cancel() {
+			isCanceled = true;
+			if (speculation != null) {
+				// wipes its key, if not yet taken
+				speculation.cancel();
+			}
+		}
+		
+		@Override
+		public void run() {
+			final int result = isCanceled ? RESULT_CANCELED : unlock();
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onUnlockFinished(UnlockJob.this, result);
+				}
+			});
+		}
+		
+		private int unlock() {
+			int result = 0;
+			DerivedKey speculativeKey = null;
+			// set here, on unlockExecutor, not while an earlier job's
+			// open() may still be reading them. Lazy decryption only
+			// shortens unlock if the vstring check, which needs most
+			// fields, is deferred too.
+			fpmCrypt.setOptimisticVerify(isOptimistic);
+			fpmCrypt.setLazyDecryption(isOptimistic);
+			try {
+				if (passphrase != null) {
+					if (speculation != null) {
+						speculation.join();
+						speculativeKey = speculation.takeKey();
+					}
+					fpmCrypt.open(fileLocator.open(fpmFile), passphrase, speculativeKey, monitor);
+				} else {
+					openWithQuickUnlockKey(fileLocator.open(fpmFile), pin, monitor);
+				}
+				if (isCanceled) {
+					// replaced or canceled after open()'s last check, the
+					// next open() must not find this key still in the crypt
+					fpmCrypt.close();
+					throw new OperationCanceledException();
+				}
+				if (passphrase != null && !StringUtils.isEmpty(pin)) {
+					discardQuickUnlock();
+					quickUnlockKey = fpmCrypt.wrapKey(pin, WrappedKey.DEFAULT_MAX_ATTEMPTS);
+				}
+			} catch (OperationCanceledException e) {
+				result = RESULT_CANCELED;
+				Log.i(TAG, "Opening FPM database canceled.");
+			} catch (FileNotFoundException e) {
+				result = R.string.exception_file_not_found;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (IOException e) {
+				result = R.string.exception_io;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (SAXException e) {
+				result = R.string.exception_sax;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (GeneralSecurityException e) {
+				result = R.string.exception_jce;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (FpmCipherUnsupportedException e) {
+				result = R.string.exception_fpm_unsupported;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (FpmPassphraseInvalidException e) {
+				result = R.string.exception_fpm_passphrase;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} catch (InterruptedException e) {
+				result = R.string.exception_io;
+				Log.w(TAG, "Failed to open FPM database.", e);
+			} finally {
+				if (speculativeKey != null) {
+					// open() wipes it, unless the file couldn't be opened
+					speculativeKey.destroy();
+				}
+			}
+			return result;
+		}
+		
+	}
+	
+	/**
+	 * Deferred vstring check of an optimistic unlock, run on
+	 * unlockExecutor, so a later unlock waits for it to stop.
+	 */
+	private class VerifyJob implements Runnable {
+		
+		private volatile boolean isCanceled = false;
+		private final ProgressMonitor monitor = new ProgressMonitor() {
+			@Override
+			public void setProgress(float fraction) {
+			}
+			
+			@Override
+			public boolean isCanceled() {
+				return isCanceled;
+			}
+		};
+		
+		public void cancel() {
+			isCanceled = true;
+		}
+		
+		@Override
+		public void run() {
+			final int result = isCanceled ? UnlockJob.RESULT_CANCELED : verify();
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					onVerifyFinished(VerifyJob.this, result);
+				}
+			});
+		}
+		
+		private int verify() {
+			int result = 0;
+			try {
+				fpmCrypt.verify(monitor);
+			} catch (OperationCanceledException e) {
+				result = UnlockJob.RESULT_CANCELED;
+			} catch (GeneralSecurityException e) {
+				result = R.string.exception_jce;
+				Log.w(TAG, "Failed to verify FPM database.", e);
+			} catch (FpmPassphraseInvalidException e) {
+				result = R.string.exception_fpm_integrity;
+				Log.w(TAG, "Failed to verify FPM database.", e);
+			} catch (RuntimeException e) {
+				// closeCrypt() while verifying, or unexpected
+				result = isCanceled ? UnlockJob.RESULT_CANCELED : R.string.exception_fpm_integrity;
+				Log.w(TAG, "Failed to verify FPM database.", e);
+			}
+			return result;
+		}
+		
+	}
+	
+	/**
+	 * Background thread for speculateKey(). Runs on its own
+	 * thread so it never queues ahead of openCrypt()'s UnlockJob.
+	 */
+	private class SpeculativeKeyThread extends Thread {
+		
+		private final String passphrase;
+		private final String fpmFile;
+		private volatile boolean isCancelled = false;
+		// not the Thread's own monitor, join() uses that
+		private final Object lock = new Object();
+		private DerivedKey derivedKey = null;
+		private final ProgressMonitor monitor = new ProgressMonitor() {
+			@Override
+			public void setProgress(float fraction) {
+			}
+			
+			@Override
+			public boolean isCanceled() {
+				return isCancelled;
+			}
+		};
+		
+		public SpeculativeKeyThread(String passphrase, String fpmFile) {
+			super("SpeculativeKeyThread");
+			this.passphrase = passphrase;
+			this.fpmFile = fpmFile;
+			setPriority(Thread.MIN_PRIORITY);
+		}
+		
+		public boolean isFor(String passphrase) {
+			return !isCancelled && this.passphrase.equals(passphrase);
+		}
+		
+		/**
+		 * Stop, and wipe the key if it was derived but not taken.
+		 */
+		public void cancel() {
+			synchronized (lock) {
+				isCancelled = true;
+				if (derivedKey != null) {
+					derivedKey.destroy();
+					derivedKey = null;
+				}
+			}
+		}
+		
+		/**
+		 * Take the derived key, once the thread has finished.
+		 * 
+		 * @return null if not derived, or cancelled
+		 */
+		public DerivedKey takeKey() {
+			synchronized (lock) {
+				DerivedKey result = derivedKey;
+				derivedKey = null;
+				return result;
+			}
+		}
+		
+		@Override
+		public void run() {
+			// selectCryptoProviders() won't trust timings taken meanwhile
+			speculationsStarted.incrementAndGet();
+			speculationsRunning.incrementAndGet();
+			try {
+				FpmFile file;
+				InputStream inputStream = fileLocator.open(fpmFile);
+				try {
+					file = FpmFileXmlParser.parse(inputStream);
+				} finally {
+					inputStream.close();
+				}
+				FpmKeyGenerator keyGenerator = FpmCrypt.createKeyGenerator(file);
+				if (keyGenerator == null || isCancelled) {
+					return;
+				}
+				String salt = file.getKeyInfo().getSalt();
+				String kdf = file.getKeyInfo().getCipher();
+				byte[] key = keyGenerator.generateKey(passphrase, salt, monitor);
+				synchronized (lock) {
+					if (!isCancelled) {
+						derivedKey = new DerivedKey(salt, kdf, key);
+					}
+				}
+				Arrays.fill(key, (byte)0);
+			} catch (OperationCanceledException e) {
+				// newer text was typed, result would be discarded anyway
+			} catch (Exception e) {
+				// openCrypt() will report the error, if it happens again
+				Log.d(TAG, "Speculative key generation failed.", e);
+			} finally {
+				speculationsRunning.decrementAndGet();
+			}
+		}
+		
+	}
+	
 	public static interface FpmFileLocator {
 		InputStream open(String file) throws IOException;
 	}
@@ -34,7 +34,8 @@ import android.util.Log;
 
 /**
  * A broadcast receiver which calls our onLock, onUnlock methods
- * when fpm broadcasts are received. 
+ * when fpm broadcasts are received. If the listener is also a
+ * ProgressListener it receives unlock progress.
  * 
  * @author braiden
  *
@@ -52,7 +53,11 @@ public class FpmBroadcastReceiver extends BroadcastReceiver {
 	public FpmBroadcastReceiver(Context activity, Listener listener) {
 		this.listener = listener;
 		this.context = activity;
-		this.context.registerReceiver(this, createIntentFilter());
+		IntentFilter filter = createIntentFilter();
+		if (listener instanceof ProgressListener) {
+			filter.addAction(FpmApplication.ACTION_FPM_PROGRESS);
+		}
+		this.context.registerReceiver(this, filter);
 	}
 	
 	
@@ -77,6 +82,9 @@ public class FpmBroadcastReceiver extends BroadcastReceiver {
 			listener.onFpmLock();
 		} else if (FpmApplication.ACTION_FPM_FAIL.equals(intent.getAction())) {
 			listener.onFpmError(intent.getIntExtra(FpmApplication.EXTRA_MSG, 0));
+		} else if (FpmApplication.ACTION_FPM_PROGRESS.equals(intent.getAction())
+				&& listener instanceof ProgressListener) {
+			((ProgressListener) listener).onFpmProgress(intent.getIntExtra(FpmApplication.EXTRA_PROGRESS, 0));
 		}
 	}
 	
@@ -86,4 +94,8 @@ public class FpmBroadcastReceiver extends BroadcastReceiver {
 		void onFpmError(int err);
 	}
 	
+	public static interface ProgressListener extends Listener {
+		void onFpmProgress(int percent);
+	}
+	
 }
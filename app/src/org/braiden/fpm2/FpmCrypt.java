@@ -28,32 +28,57 @@ package org.braiden.fpm2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.CharBuffer;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.NoSuchPaddingException;
 
 import org.apache.commons.lang.StringUtils;
+import org.braiden.fpm2.crypto.CryptoProviderSelector;
+import org.braiden.fpm2.crypto.DerivedKey;
+import org.braiden.fpm2.crypto.DerivedKeyCache;
 import org.braiden.fpm2.crypto.FpmCipher;
+import org.braiden.fpm2.crypto.FpmCipherSession;
 import org.braiden.fpm2.crypto.FpmCryptoUtils;
 import org.braiden.fpm2.crypto.FpmKeyGenerator;
 import org.braiden.fpm2.crypto.JCEFpmCipher;
 import org.braiden.fpm2.crypto.NullFpmCipher;
 import org.braiden.fpm2.crypto.NullFpmKeyGenerator;
 import org.braiden.fpm2.crypto.PBKDF2FpmKeyGenerator;
-import org.braiden.fpm2.model.DataObject;
+import org.braiden.fpm2.crypto.TableAESFpmCipher;
+import org.braiden.fpm2.crypto.WrappedKey;
+import org.braiden.fpm2.model.EncryptedDataObject;
+import org.braiden.fpm2.model.FieldDecrypter;
 import org.braiden.fpm2.model.FpmFile;
+import org.braiden.fpm2.model.KeyInfo;
 import org.braiden.fpm2.model.LauncherItem;
+import org.braiden.fpm2.model.LazyDataObject;
 import org.braiden.fpm2.model.PasswordItem;
 import org.braiden.fpm2.util.HexUtils;
-import org.braiden.fpm2.util.PropertyUtils;
+import org.braiden.fpm2.util.OperationCanceledException;
+import org.braiden.fpm2.util.ProgressInputStream;
+import org.braiden.fpm2.util.ProgressMonitor;
 import org.braiden.fpm2.xml.FpmFileXmlParser;
+import org.braiden.fpm2.xml.FpmFileXmlParser.KeyInfoListener;
 import org.xml.sax.SAXException;
 
 import android.util.Log;
@@ -73,15 +98,58 @@ public class FpmCrypt {
 	
 	public final static String PROPERTY_USER = "user";
 	public final static String PROPERTY_PASSWORD = "password";
+	// FPM pads every encrypted password to this length
+	public final static int PASSWORD_LENGTH_BYTES = 256;
+	// other fields are padded to a multiple of the AES block
+	public final static int AES_BLOCK_SIZE = 16;
 	
 	protected final static String AES_VSTRING_HASH_FUNCTION = "SHA256";	
 	protected final static String TAG = "FpmCrypt";
+	
+	// fraction of open() progress at the end of each stage
+	protected final static float PROGRESS_PARSED = 0.10f;
+	protected final static float PROGRESS_KEY_GENERATED = 0.85f;
+	protected final static float PROGRESS_DECRYPTED = 0.95f;
+	// items whose properties are decrypted in one FpmCipherSession call
+	protected final static int DECRYPT_BATCH_ITEMS = 64;
+	// PasswordItem fields hashed by the vstring check
+	protected final static int VSTRING_FIELDS = PasswordItem.FIELD_TITLE | PasswordItem.FIELD_URL
+			| PasswordItem.FIELD_USER | PasswordItem.FIELD_NOTES | PasswordItem.FIELD_CATEGORY
+			| PasswordItem.FIELD_LAUNCHER;
+	// fields decrypted by checkStructure(), a wrong key passes each with about 1/16 chance
+	protected final static int STRUCTURE_CHECK_FIELDS = 8;
 		
 	private FpmCipher cipher;
+	// thread safe, decrypt() may be called from any thread
+	private volatile FpmCipherSession session;
 	private FpmKeyGenerator keyGenerator;
 	private FpmFile fpmFile;
 	private byte[] key;
 	private Set<String> categories;
+	private DerivedKeyCache keyCache;
+	private boolean isLazyDecryption = false;
+	private int decryptThreads = 1;
+	// created by the first runBatches() needing it, shut down by close()
+	private ExecutorService decryptExecutor = null;
+	private boolean isOptimisticVerify = false;
+	private volatile boolean isVerified = false;
+	
+	// decrypts LazyDataObject fields when they are first read
+	private final FieldDecrypter fieldDecrypter = new FieldDecrypter() {
+		@Override
+		public String decryptField(String encryptedData) throws GeneralSecurityException {
+			try {
+				return decrypt(encryptedData);
+			} catch (GeneralSecurityException e) {
+				Log.w(TAG, "Failed to decrypt field.", e);
+				throw e;
+			} catch (RuntimeException e) {
+				// e.g. crypt closed
+				Log.w(TAG, "Failed to decrypt field.", e);
+				throw e;
+			}
+		}
+	};
 	
 	/**
 	 * Open the given FPM file, pointed to by inputStream
@@ -98,63 +166,541 @@ public class FpmCrypt {
 	 */
 	public void open(InputStream inputStream, String password) 	throws IOException, SAXException, 
 			GeneralSecurityException, FpmCipherUnsupportedException, FpmPassphraseInvalidException {
+		open(inputStream, password, ProgressMonitor.NULL);
+	}
+	
+	/**
+	 * Open the given FPM file, reporting progress of parsing, key generation
+	 * and decryption to the given monitor. If the monitor is canceled open()
+	 * stops as soon as possible, leaving the crypt closed, and throws
+	 * OperationCanceledException.
+	 * 
+	 * @param inputStream open inputStream positioned at start of file.
+	 * @param password passphrase used to generate key for reading file
+	 * @param monitor
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws GeneralSecurityException
+	 * @throws FpmCipherUnsupportedException
+	 * @throws FpmPassphraseInvalidException
+	 */
+	public void open(InputStream inputStream, String password, ProgressMonitor monitor) 	throws IOException, SAXException, 
+			GeneralSecurityException, FpmCipherUnsupportedException, FpmPassphraseInvalidException {
+		open(inputStream, password, null, monitor);
+	}
+	
+	/**
+	 * open(), using derivedKey if it was derived from password with
+	 * the file's salt and cipher, e.g. by key speculation while the
+	 * passphrase was typed. derivedKey is taken (and wiped) either way.
+	 * 
+	 * @param inputStream open inputStream positioned at start of file.
+	 * @param password passphrase used to generate key for reading file
+	 * @param derivedKey may be null
+	 * @param monitor
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws GeneralSecurityException
+	 * @throws FpmCipherUnsupportedException
+	 * @throws FpmPassphraseInvalidException
+	 */
+	public void open(InputStream inputStream, String password, DerivedKey derivedKey, ProgressMonitor monitor) 	throws IOException, SAXException, 
+			GeneralSecurityException, FpmCipherUnsupportedException, FpmPassphraseInvalidException {
 		boolean isSuccess = false;
+		// key generation starts once KeyInfo is parsed, and reports
+		// progress from then on, parsing only checks for cancel.
+		KeyGeneration keyGeneration = new KeyGeneration(password, derivedKey,
+				monitor.subMonitor(PROGRESS_PARSED, PROGRESS_KEY_GENERATED));
 		try {
-			// build data objects form xml
-			fpmFile = FpmFileXmlParser.parse(inputStream);
-			
-			// locate a cipher and key generator for the given inpurt file
-			cipher = createCipher(fpmFile);
-			keyGenerator = createKeyGenerator(fpmFile);
-			
-			// can't go further if cipher of key gen is null (this fpm file format is not supported).
-			if (cipher == null || keyGenerator == null) {
-				throw new FpmCipherUnsupportedException("FPM Cipher \"" + fpmFile.getKeyInfo().getCipher() + "\" is not supported.");
-			}
+			parse(inputStream, keyGeneration.getParseMonitor(monitor.subMonitor(0.0f, PROGRESS_PARSED)), keyGeneration);
 			
 			if (StringUtils.isEmpty(password)) {
 				throw new FpmPassphraseInvalidException("Empty passphrase.");
 			}
 			
-			// build a key (byte[]) from the provided password.
-			this.key = keyGenerator.generateKey(password, fpmFile.getKeyInfo().getSalt());
-			
-			// decrypt everything except passwords inplace in our model.
-			decryptAll();
+			// build a key (byte[]) from the provided password,
+			// unless the same passphrase, salt and kdf are in the cache.
+			String salt = fpmFile.getKeyInfo().getSalt();
+			String kdf = fpmFile.getKeyInfo().getCipher();
+			wipeKey();
+			if (keyGeneration.isStarted()) {
+				this.key = keyGeneration.getKey();
+			} else {
+				this.key = findKey(password, salt, kdf, derivedKey);
+				if (this.key == null) {
+					this.key = keyGenerator.generateKey(password, salt,
+							monitor.subMonitor(PROGRESS_PARSED, PROGRESS_KEY_GENERATED));
+				}
+			}
+			monitor.setProgress(PROGRESS_KEY_GENERATED);
 			
-			// verify data decrypted ok, if not, key must be invalid.
-			if (!verifyVstring()) {
-				throw new FpmPassphraseInvalidException("Passphrase invalid.");
+			try {
+				decryptAndVerify(monitor);
+			} catch (FpmPassphraseInvalidException e) {
+				if (keyCache != null) {
+					keyCache.remove(password, salt, kdf);
+				}
+				throw e;
 			}
 			
-			initCategories();
+			if (keyCache != null) {
+				keyCache.put(password, salt, kdf, key);
+			}
 			
 			isSuccess = true;
 		} finally {
+			if (derivedKey != null) {
+				derivedKey.destroy();
+			}
 			if (!isSuccess) {
+				keyGeneration.cancel();
 				close();
 			}
 		}
 	}
+	
+	/**
+	 * Key already derived from password, with salt and kdf, taken
+	 * from derivedKey or the key cache.
+	 * 
+	 * @return the key, or null if it must be generated
+	 * @throws GeneralSecurityException
+	 */
+	protected byte[] findKey(String password, String salt, String kdf, DerivedKey derivedKey) throws GeneralSecurityException {
+		byte[] key = derivedKey == null ? null : derivedKey.take(salt, kdf);
+		if (key == null && keyCache != null) {
+			key = keyCache.get(password, salt, kdf);
+		}
+		return key;
+	}
+	
+	/**
+	 * Open the given FPM file with a key, rather than a passphrase.
+	 * Used for quick unlock, key is typically from WrappedKey. The key
+	 * is copied, caller remains responsible for wiping its array.
+	 * 
+	 * @param inputStream open inputStream positioned at start of file.
+	 * @param key cipher key for the file
+	 * @param monitor
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws GeneralSecurityException
+	 * @throws FpmCipherUnsupportedException
+	 * @throws FpmPassphraseInvalidException if key is not the file's key
+	 */
+	public void openWithKey(InputStream inputStream, byte[] key, ProgressMonitor monitor) throws IOException, SAXException,
+			GeneralSecurityException, FpmCipherUnsupportedException, FpmPassphraseInvalidException {
+		boolean isSuccess = false;
+		try {
+			parse(inputStream, monitor.subMonitor(0.0f, PROGRESS_PARSED));
+			monitor.setProgress(PROGRESS_KEY_GENERATED);
+			wipeKey();
+			this.key = key.clone();
+			decryptAndVerify(monitor);
+			isSuccess = true;
+		} finally {
+			if (!isSuccess) {
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * Wrap the key of this open crypt under a PIN, for
+	 * a later openWithKey().
+	 * 
+	 * @param pin
+	 * @param maxAttempts
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public WrappedKey wrapKey(String pin, int maxAttempts) throws GeneralSecurityException {
+		return new WrappedKey(key, pin, maxAttempts);
+	}
+	
+	/**
+	 * Open several FPM files which share a passphrase. Each file is
+	 * parsed, has its key generated, and is decrypted on a pool of at most
+	 * threads threads. Files with the same cipher and salt share one key
+	 * generation. Results are returned in the same order as inputStreams,
+	 * a failure to open one file does not affect the others.
+	 * 
+	 * @param inputStreams
+	 * @param password
+	 * @param threads maximum number of files opened at the same time
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static List<OpenResult> openAll(List<InputStream> inputStreams, final String password, int threads) throws InterruptedException {
+		// keys by cipher and salt, generated by whichever file needs it first
+		final ConcurrentMap<String, FutureTask<byte[]>> keys = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+		// every crypt opened, closed if the caller is interrupted, and
+		// set once that happened, so tasks still running close their own
+		final List<FpmCrypt> opened = new ArrayList<FpmCrypt>();
+		final AtomicBoolean isAbandoned = new AtomicBoolean(false);
+		List<Callable<OpenResult>> tasks = new ArrayList<Callable<OpenResult>>(inputStreams.size());
+		for (final InputStream inputStream : inputStreams) {
+			tasks.add(new Callable<OpenResult>() {
+				public OpenResult call() {
+					FpmCrypt fpmCrypt = new FpmCrypt();
+					try {
+						fpmCrypt.openShared(inputStream, password, keys);
+						synchronized (opened) {
+							if (!isAbandoned.get()) {
+								opened.add(fpmCrypt);
+								return new OpenResult(fpmCrypt, null);
+							}
+						}
+						fpmCrypt.close();
+						return new OpenResult(null, new OperationCanceledException());
+					} catch (Exception e) {
+						fpmCrypt.close();
+						return new OpenResult(null, e);
+					}
+				}
+			});
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			List<OpenResult> results = new ArrayList<OpenResult>(tasks.size());
+			for (Future<OpenResult> future : executor.invokeAll(tasks)) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					// tasks catch their own exceptions, so only Errors get here
+					results.add(new OpenResult(null, e));
+				}
+			}
+			return results;
+		} catch (InterruptedException e) {
+			// no results will be returned, nobody else can close them
+			synchronized (opened) {
+				isAbandoned.set(true);
+				for (FpmCrypt fpmCrypt : opened) {
+					fpmCrypt.close();
+				}
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+			// each FpmCrypt has its own copy, wipe the shared ones
+			for (FutureTask<byte[]> future : keys.values()) {
+				try {
+					Arrays.fill(future.get(), (byte)0);
+				} catch (Exception e) {
+					// no key to clean up
+				}
+			}
+		}
+	}
+	
+	/**
+	 * open() used by openAll(). The key is taken from, or generated
+	 * into, keys, which is shared by all files being opened.
+	 * 
+	 * @param inputStream
+	 * @param password
+	 * @param keys
+	 * @throws Exception
+	 */
+	protected void openShared(InputStream inputStream, final String password, ConcurrentMap<String, FutureTask<byte[]>> keys) throws Exception {
+		parse(inputStream, ProgressMonitor.NULL);
+		
+		if (StringUtils.isEmpty(password)) {
+			throw new FpmPassphraseInvalidException("Empty passphrase.");
+		}
+		
+		final FpmKeyGenerator keyGenerator = this.keyGenerator;
+		final String salt = fpmFile.getKeyInfo().getSalt();
+		FutureTask<byte[]> keyTask = new FutureTask<byte[]>(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return keyGenerator.generateKey(password, salt);
+			}
+		});
+		FutureTask<byte[]> existingKeyTask = keys.putIfAbsent(fpmFile.getKeyInfo().getCipher() + "\0" + salt, keyTask);
+		if (existingKeyTask == null) {
+			// generate in this thread, other files with the same salt wait below.
+			keyTask.run();
+		} else {
+			keyTask = existingKeyTask;
+		}
+		
+		try {
+			this.key = keyTask.get().clone();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+		
+		decryptAndVerify(ProgressMonitor.NULL);
+	}
+	
+	/**
+	 * Parse the file and create cipher and key generator for it.
+	 * 
+	 * @param inputStream
+	 * @param monitor progress of parsing
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws GeneralSecurityException
+	 * @throws FpmCipherUnsupportedException
+	 */
+	protected void parse(InputStream inputStream, ProgressMonitor monitor) throws IOException, SAXException,
+			GeneralSecurityException, FpmCipherUnsupportedException {
+		parse(inputStream, monitor, null);
+	}
+	
+	/**
+	 * parse(), calling keyInfoListener as soon as KeyInfo is parsed.
+	 * 
+	 * @param inputStream
+	 * @param monitor progress of parsing
+	 * @param keyInfoListener may be null
+	 * @throws IOException
+	 * @throws SAXException
+	 * @throws GeneralSecurityException
+	 * @throws FpmCipherUnsupportedException
+	 */
+	protected void parse(InputStream inputStream, ProgressMonitor monitor, KeyInfoListener keyInfoListener) throws IOException, SAXException,
+			GeneralSecurityException, FpmCipherUnsupportedException {
+		// build data objects form xml
+		fpmFile = FpmFileXmlParser.parse(new ProgressInputStream(inputStream, inputStream.available(), monitor), keyInfoListener);
+		
+		// locate a cipher and key generator for the given inpurt file
+		cipher = createCipher(fpmFile);
+		keyGenerator = createKeyGenerator(fpmFile);
+		
+		// can't go further if cipher of key gen is null (this fpm file format is not supported).
+		if (cipher == null || keyGenerator == null) {
+			throw new FpmCipherUnsupportedException("FPM Cipher \"" + fpmFile.getKeyInfo().getCipher() + "\" is not supported.");
+		}
+	}
+	
+	/**
+	 * Decrypt the parsed file with this.key, and check the key was
+	 * correct. monitor is the monitor for all of open(), only the
+	 * range after PROGRESS_KEY_GENERATED is reported.
+	 * 
+	 * @param monitor
+	 * @throws GeneralSecurityException
+	 * @throws FpmPassphraseInvalidException
+	 */
+	protected void decryptAndVerify(ProgressMonitor monitor) throws GeneralSecurityException, FpmPassphraseInvalidException {
+		// key is set up once for all fields
+		FpmCipherSession oldSession = session;
+		if (oldSession != null) {
+			// left by an open() which was never closed
+			session = null;
+			oldSession.close();
+		}
+		session = cipher.createSession(key);
+		isVerified = false;
+		
+		// with too few fields to check, the vstring is cheap anyway
+		boolean isDeferVerify = isOptimisticVerify
+				&& FPM_CIPHER_AES_256.equals(fpmFile.getKeyInfo().getCipher())
+				&& checkStructure() >= STRUCTURE_CHECK_FIELDS;
+		
+		if (isLazyDecryption) {
+			// leave every field encrypted until read, except those
+			// the vstring check is about to hash, done in batches.
+			// Deferring the check, only what the list shows is needed.
+			setAllPending();
+			decryptPending(fpmFile.getPasswordItems(),
+					isDeferVerify ? PasswordItem.FIELD_TITLE | PasswordItem.FIELD_CATEGORY : VSTRING_FIELDS,
+					monitor.subMonitor(PROGRESS_KEY_GENERATED, PROGRESS_DECRYPTED));
+		} else {
+			// decrypt everything except passwords inplace in our model.
+			decryptAll(monitor.subMonitor(PROGRESS_KEY_GENERATED, PROGRESS_DECRYPTED));
+		}
+		monitor.checkCanceled();
+		
+		// verify data decrypted ok, if not, key must be invalid.
+		if (!isDeferVerify) {
+			if (!verifyVstring()) {
+				throw new FpmPassphraseInvalidException("Passphrase invalid.");
+			}
+			isVerified = true;
+		}
+		
+		initCategories();
+		monitor.setProgress(1.0f);
+	}
+	
+	/**
+	 * Complete an open() which deferred the vstring check (see
+	 * setOptimisticVerify()), decrypting any fields it hashes which
+	 * are still pending. Items may be read by other threads meanwhile.
+	 * Does nothing if already verified.
+	 * 
+	 * @param monitor
+	 * @throws GeneralSecurityException
+	 * @throws FpmPassphraseInvalidException if the vstring does not match,
+	 *   the crypt is left open and the caller should close() it.
+	 */
+	public void verify(ProgressMonitor monitor) throws GeneralSecurityException, FpmPassphraseInvalidException {
+		if (isVerified) {
+			return;
+		}
+		decryptPending(fpmFile.getPasswordItems(), VSTRING_FIELDS, monitor);
+		monitor.checkCanceled();
+		if (!verifyVstring()) {
+			throw new FpmPassphraseInvalidException("Vstring check failed.");
+		}
+		isVerified = true;
+		monitor.setProgress(1.0f);
+	}
+	
+	/**
+	 * True once the vstring check has passed, always
+	 * true after open() unless the check was deferred.
+	 * 
+	 * @return
+	 */
+	public boolean isVerified() {
+		return isVerified;
+	}
+	
+	/**
+	 * Cheap check the key is right, before anything is decrypted: up to
+	 * STRUCTURE_CHECK_FIELDS item fields must decrypt to '\0' terminated
+	 * strings, exactly FpmCryptoUtils.fieldLength() of the string long,
+	 * as FPM writes them. Passwords have more padding, so aren't checked.
+	 * Fields which can't be decrypted at all (bad encoding) are not counted.
+	 * 
+	 * @return number of fields checked
+	 * @throws FpmPassphraseInvalidException if any field checked is not as FPM writes it
+	 */
+	protected int checkStructure() throws FpmPassphraseInvalidException {
+		int checked = 0;
+		for (PasswordItem item : fpmFile.getPasswordItems()) {
+			int fields = item.encryptedFields();
+			for (int field = 1; field != 0 && field <= fields; field <<= 1) {
+				String value = (fields & field) != 0 ? item.getField(field) : null;
+				if (value == null) {
+					continue;
+				}
+				byte[] clear;
+				try {
+					clear = session.decryptRaw(value);
+				} catch (Exception e) {
+					Log.w(TAG, "Failed to decrypt field.", e);
+					continue;
+				}
+				int end = 0;
+				while (end < clear.length && clear[end] != 0) {
+					end++;
+				}
+				Arrays.fill(clear, (byte)0);
+				if (end == clear.length || clear.length != FpmCryptoUtils.fieldLength(end, AES_BLOCK_SIZE)) {
+					throw new FpmPassphraseInvalidException("Passphrase invalid.");
+				}
+				if (++checked >= STRUCTURE_CHECK_FIELDS) {
+					return checked;
+				}
+			}
+		}
+		return checked;
+	}
 
 	/**
 	 * Close the crypt
 	 */
 	public void close() {
-		if (key != null) {
-			// futile(?) attempt to clean key from memory.
-			Arrays.fill(key, (byte)0);
-			key = null;
+		wipeKey();
+		FpmCipherSession session = this.session;
+		if (session != null) {
+			this.session = null;
+			session.close();
 		}
+		shutdownDecryptExecutor();
 		cipher = null;
 		keyGenerator = null;
 		fpmFile = null;
 		categories = null;
 	}
 	
+	/**
+	 * Wipe the key, also before open() replaces one
+	 * left by an earlier open() which was never closed.
+	 */
+	private void wipeKey() {
+		if (key != null) {
+			// futile(?) attempt to clean key from memory.
+			Arrays.fill(key, (byte)0);
+			key = null;
+		}
+	}
+	
 	public Set<String> getCategories() {
 		return categories;
 	}
+	
+	/**
+	 * Cache used to remember derived keys between calls to open().
+	 * May be null, in which case the key is always generated.
+	 * 
+	 * @param keyCache
+	 */
+	public void setKeyCache(DerivedKeyCache keyCache) {
+		this.keyCache = keyCache;
+	}
+	
+	public DerivedKeyCache getKeyCache() {
+		return keyCache;
+	}
+	
+	/**
+	 * Leave item fields encrypted after open(), each is decrypted
+	 * the first time it's read (see LazyDataObject). The vstring
+	 * check hashes most PasswordItem fields, so open() still decrypts
+	 * those, unless the check is deferred (setOptimisticVerify()), when
+	 * only titles and categories are. Launchers are never decrypted
+	 * by open().
+	 * 
+	 * @param isLazyDecryption
+	 */
+	public void setLazyDecryption(boolean isLazyDecryption) {
+		this.isLazyDecryption = isLazyDecryption;
+	}
+	
+	public boolean isLazyDecryption() {
+		return isLazyDecryption;
+	}
+	
+	/**
+	 * Number of threads open() decrypts fields on, each batch of
+	 * DECRYPT_BATCH_ITEMS items is decrypted by one thread, with its
+	 * own decryptor from the session. 1 (the default) decrypts on
+	 * the calling thread.
+	 * 
+	 * @param decryptThreads
+	 */
+	public void setDecryptThreads(int decryptThreads) {
+		this.decryptThreads = Math.max(1, decryptThreads);
+		// recreated with the new size when next needed
+		shutdownDecryptExecutor();
+	}
+	
+	public int getDecryptThreads() {
+		return decryptThreads;
+	}
+	
+	/**
+	 * Let open() succeed after checkStructure(), leaving the vstring
+	 * check to a later call to verify(), e.g. in the background while
+	 * items are listed. Only AES files are checked this way, and
+	 * isVerified() tells whether verify() is still needed.
+	 * 
+	 * @param isOptimisticVerify
+	 */
+	public void setOptimisticVerify(boolean isOptimisticVerify) {
+		this.isOptimisticVerify = isOptimisticVerify;
+	}
+	
+	public boolean isOptimisticVerify() {
+		return isOptimisticVerify;
+	}
 
 	/**
 	 * Decrypt the provided string using FPM2's logic
@@ -164,7 +710,22 @@ public class FpmCrypt {
 	 * @throws Exception
 	 */
 	public String decrypt(String encryptedData) throws GeneralSecurityException {
-		return cipher.decrypt(key, encryptedData);
+		return getSession().decrypt(encryptedData);
+	}
+	
+	/**
+	 * Decrypt into dst, starting at its position, without creating
+	 * a String the plain text can't be wiped from.
+	 * FpmBase16.decodedLength(encryptedData.length()) is always
+	 * enough room.
+	 * 
+	 * @param encryptedData
+	 * @param dst
+	 * @return number of chars written
+	 * @throws GeneralSecurityException
+	 */
+	public int decrypt(String encryptedData, CharBuffer dst) throws GeneralSecurityException {
+		return getSession().decrypt(encryptedData, dst);
 	}
 	
 	/**
@@ -175,7 +736,27 @@ public class FpmCrypt {
 	 * @throws Exception
 	 */
 	public String encrypt(String clearTextData) throws GeneralSecurityException {
-		return cipher.encrypt(key, clearTextData);
+		return getSession().encrypt(clearTextData);
+	}
+	
+	/**
+	 * Encrypt a password, padded to PASSWORD_LENGTH_BYTES
+	 * as FPM does, so its length is not revealed.
+	 * 
+	 * @param password
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String encryptPassword(String password) throws GeneralSecurityException {
+		return getSession().encrypt(password, PASSWORD_LENGTH_BYTES);
+	}
+	
+	private FpmCipherSession getSession() {
+		FpmCipherSession session = this.session;
+		if (session == null) {
+			throw new IllegalStateException("FpmCrypt is not open.");
+		}
+		return session;
 	}
 
 	/**
@@ -190,43 +771,271 @@ public class FpmCrypt {
 	/**
 	 * decrypt all PasswordItems and Launchers
 	 */
-	protected void decryptAll() {				
-		for (PasswordItem passwordItem : fpmFile.getPasswordItems()) {
-			decryptBean(passwordItem);
+	protected void decryptAll() {
+		decryptAll(ProgressMonitor.NULL);
+	}
+	
+	/**
+	 * decrypt all PasswordItems and Launchers, reporting progress
+	 * after each batch of DECRYPT_BATCH_ITEMS items.
+	 * 
+	 * @param monitor
+	 */
+	protected void decryptAll(ProgressMonitor monitor) {
+		final List<EncryptedDataObject> beans = new ArrayList<EncryptedDataObject>(
+				fpmFile.getPasswordItems().size() + fpmFile.getLauncherItems().size());
+		beans.addAll(fpmFile.getPasswordItems());
+		beans.addAll(fpmFile.getLauncherItems());
+		runBatches(beans.size(), new Batch() {
+			public void run(int start, int end) {
+				decryptBeans(beans.subList(start, end));
+			}
+		}, monitor);
+	}
+	
+	/**
+	 * Mark every field of every item as encrypted,
+	 * to be decrypted when first read.
+	 */
+	protected void setAllPending() {
+		for (PasswordItem item : fpmFile.getPasswordItems()) {
+			item.setPendingFields(fieldDecrypter, PasswordItem.ALL_FIELDS);
 		}
-		for (LauncherItem launcherItem : fpmFile.getLauncherItems()) {
-			decryptBean(launcherItem);
+		for (LauncherItem item : fpmFile.getLauncherItems()) {
+			item.setPendingFields(fieldDecrypter, LauncherItem.ALL_FIELDS);
 		}
 	}
 	
 	/**
-	 * Assume the all string properties for the given
-	 * bean are encrypted, and try to convert to clear text.
-	 * Password property is skipped.
+	 * Decrypt the given fields of beans now, if still pending, in
+	 * batches of DECRYPT_BATCH_ITEMS beans, rather than one at a
+	 * time as they're read.
 	 * 
-	 * @param bean
+	 * @param beans
+	 * @param fields
+	 * @param monitor
 	 */
-	protected void decryptBean(DataObject bean) {
-		Map<String, Object> beanProps;
-		try {
-			beanProps = PropertyUtils.describe(bean);
-		} catch (Exception e) {
-			Log.w(TAG, "Failed to decrypt bean.", e);
+	protected void decryptPending(final List<? extends LazyDataObject> beans, final int fields, ProgressMonitor monitor) {
+		runBatches(beans.size(), new Batch() {
+			public void run(int start, int end) {
+				decryptPendingBatch(beans.subList(start, end), fields);
+			}
+		}, monitor);
+	}
+	
+	/**
+	 * decryptPending() for one batch, all fields
+	 * are decrypted in one call to the session.
+	 * 
+	 * @param beans
+	 * @param fields
+	 * @throws IllegalStateException if the crypt is closed, ending the batch
+	 */
+	protected void decryptPendingBatch(List<? extends LazyDataObject> beans, int fields) {
+		FpmCipherSession session = getSession();
+		List<LazyDataObject> owners = new ArrayList<LazyDataObject>();
+		List<Integer> ownerFields = new ArrayList<Integer>();
+		List<String> values = new ArrayList<String>();
+		
+		for (LazyDataObject bean : beans) {
+			for (int field = 1; field != 0 && field <= fields; field <<= 1) {
+				String value = (fields & field) != 0 ? bean.getPendingValue(field) : null;
+				if (value != null) {
+					owners.add(bean);
+					ownerFields.add(field);
+					values.add(value);
+				}
+			}
+		}
+		
+		String[] clearText = decryptBatch(session, values);
+		for (int n = 0; n < values.size(); n++) {
+			try {
+				String value = clearText != null ? clearText[n] : session.decrypt(values.get(n));
+				owners.get(n).setDecrypted(ownerFields.get(n), values.get(n), value);
+			} catch (IllegalStateException e) {
+				// session closed with the crypt
+				throw e;
+			} catch (Exception e) {
+				// left pending
+				Log.w(TAG, "Failed while decrypting field " + ownerFields.get(n) + ".", e);
+			}
+		}
+	}
+	
+	/**
+	 * Run batch over 0 to size in ranges of DECRYPT_BATCH_ITEMS.
+	 * With more than one decryptThreads batches run on a pool of
+	 * that many threads, each writing only its own items, so the
+	 * result is the same as running them in order. Progress and
+	 * cancellation are handled on the calling thread, in order.
+	 * 
+	 * @param size
+	 * @param batch
+	 * @param monitor
+	 */
+	protected void runBatches(int size, final Batch batch, ProgressMonitor monitor) {
+		int batches = (size + DECRYPT_BATCH_ITEMS - 1) / DECRYPT_BATCH_ITEMS;
+		if (decryptThreads <= 1 || batches <= 1) {
+			for (int start = 0; start < size; start += DECRYPT_BATCH_ITEMS) {
+				monitor.checkCanceled();
+				int end = Math.min(size, start + DECRYPT_BATCH_ITEMS);
+				batch.run(start, end);
+				monitor.setProgress((float) end / size);
+			}
 			return;
 		}
-		for (Entry<String, Object> entry : beanProps.entrySet()) {
-			if (!PROPERTY_PASSWORD.equals(entry.getKey())
-					&& entry.getValue() != null
-					&& String.class.isAssignableFrom(entry.getValue().getClass())) {
+		
+		ExecutorService executor = getDecryptExecutor();
+		List<Future<?>> futures = new ArrayList<Future<?>>(batches);
+		boolean isComplete = false;
+		try {
+			for (int start = 0; start < size; start += DECRYPT_BATCH_ITEMS) {
+				final int batchStart = start;
+				final int batchEnd = Math.min(size, start + DECRYPT_BATCH_ITEMS);
 				try {
-					PropertyUtils.setProperty(bean, entry.getKey(), decrypt((String) entry.getValue()));
-				} catch (Exception e) {
-					Log.w(TAG, "Failed while decrypting property \"" + entry.getKey() + "\".", e);
+					futures.add(executor.submit(new Runnable() {
+						public void run() {
+							batch.run(batchStart, batchEnd);
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					// pool shut down by close() or setDecryptThreads() meanwhile
+					throw new OperationCanceledException();
+				}
+			}
+			for (int n = 0; n < futures.size(); n++) {
+				monitor.checkCanceled();
+				try {
+					futures.get(n).get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new OperationCanceledException();
+				} catch (ExecutionException e) {
+					// batches catch their own per item errors, except
+					// IllegalStateException once the crypt is closed
+					if (e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+					throw new RuntimeException(e.getCause());
+				}
+				monitor.setProgress((float) Math.min(size, (n + 1) * DECRYPT_BATCH_ITEMS) / size);
+			}
+			isComplete = true;
+		} finally {
+			if (!isComplete) {
+				// canceled, or failed, stop what's left
+				for (Future<?> future : futures) {
+					future.cancel(true);
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Pool of decryptThreads threads for runBatches(), reused
+	 * until close(). Daemon threads, so an FpmCrypt which is
+	 * never closed doesn't keep the process alive.
+	 * 
+	 * @return
+	 */
+	protected synchronized ExecutorService getDecryptExecutor() {
+		if (decryptExecutor == null) {
+			decryptExecutor = Executors.newFixedThreadPool(decryptThreads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "FpmDecrypt");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return decryptExecutor;
+	}
+	
+	/**
+	 * Shut down the pool from getDecryptExecutor(), if any. Batches
+	 * already queued still run (they fail fast once the session is
+	 * closed), so runBatches() never waits on one which won't. A
+	 * runBatches() still submitting is canceled.
+	 */
+	protected synchronized void shutdownDecryptExecutor() {
+		if (decryptExecutor != null) {
+			decryptExecutor.shutdown();
+			decryptExecutor = null;
+		}
+	}
+	
+	/**
+	 * Assume the all encrypted fields for the given
+	 * bean are encrypted, and try to convert to clear text.
+	 * Password is not one of them, so is skipped.
+	 * 
+	 * @param bean
+	 */
+	protected void decryptBean(EncryptedDataObject bean) {
+		decryptBeans(Collections.singletonList(bean));
+	}
+	
+	/**
+	 * decryptBean() for several beans, with all of their
+	 * fields decrypted in one batch.
+	 * 
+	 * @param beans
+	 * @throws IllegalStateException if the crypt is closed, ending the batch
+	 */
+	protected void decryptBeans(List<? extends EncryptedDataObject> beans) {
+		FpmCipherSession session = getSession();
+		List<EncryptedDataObject> owners = new ArrayList<EncryptedDataObject>();
+		List<Integer> fields = new ArrayList<Integer>();
+		List<String> values = new ArrayList<String>();
+		
+		for (EncryptedDataObject bean : beans) {
+			int encryptedFields = bean.encryptedFields();
+			for (int field = 1; field != 0 && field <= encryptedFields; field <<= 1) {
+				String value = (encryptedFields & field) != 0 ? bean.getField(field) : null;
+				if (value != null) {
+					owners.add(bean);
+					fields.add(field);
+					values.add(value);
+				}
+			}
+		}
+		
+		String[] clearText = decryptBatch(session, values);
+		for (int n = 0; n < values.size(); n++) {
+			try {
+				owners.get(n).setField(fields.get(n),
+						clearText != null ? clearText[n] : session.decrypt(values.get(n)));
+			} catch (IllegalStateException e) {
+				// session closed with the crypt
+				throw e;
+			} catch (Exception e) {
+				Log.w(TAG, "Failed while decrypting field " + fields.get(n) + ".", e);
+			}
+		}
+	}
+	
+	/**
+	 * Decrypt values in one call to session, or return null if
+	 * any of them is bad, so the caller can find the bad field(s)
+	 * and keep the rest. A closed session is not retried.
+	 * 
+	 * @param session
+	 * @param values
+	 * @return
+	 * @throws IllegalStateException if the session is closed
+	 */
+	private String[] decryptBatch(FpmCipherSession session, List<String> values) {
+		try {
+			return session.decrypt(values.toArray(new String[values.size()]));
+		} catch (IllegalStateException e) {
+			throw e;
+		} catch (Exception e) {
+			Log.w(TAG, "Batch decrypt failed, decrypting fields one at a time.", e);
+			return null;
+		}
+	}
+	
 	/**
 	 * Verify the vstring hash is ok. This is used to confirm password/key is OK.
 	 * 
@@ -270,7 +1079,7 @@ public class FpmCrypt {
 		byte[] fileVstring;
 		
 		try {
-			fileVstring = cipher.decryptRaw(key, fpmFile.getKeyInfo().getVstring());
+			fileVstring = session.decryptRaw(fpmFile.getKeyInfo().getVstring());
 		} catch (Exception e) {
 			fileVstring = null;
 			Log.w(TAG, "Failed to decrypt vstring.", e);
@@ -292,7 +1101,9 @@ public class FpmCrypt {
 	
 	/**
 	 * Get the FpmCipher which know how to decrypt data in this file.
-	 * Currently only AES-256 is supported.
+	 * Currently only AES-256 is supported. The JCE provider is the
+	 * one chosen by CryptoProviderSelector (default if none), which
+	 * may instead choose the pure java TableAESFpmCipher.
 	 * 
 	 * @param fpmFile
 	 * @return
@@ -302,7 +1113,11 @@ public class FpmCrypt {
 	 */
 	protected static FpmCipher createCipher(FpmFile fpmFile) throws GeneralSecurityException {
 		if (FPM_CIPHER_AES_256.equals(fpmFile.getKeyInfo().getCipher())) {
-			return new JCEFpmCipher();
+			String provider = CryptoProviderSelector.getCipherProvider();
+			if (TableAESFpmCipher.PROVIDER_NAME.equals(provider)) {
+				return new TableAESFpmCipher();
+			}
+			return new JCEFpmCipher(JCEFpmCipher.DEFAULT_CIPHER, provider);
 		} else if (FPM_CIPHER_NULL.equals(fpmFile.getKeyInfo().getCipher())) {
 			return new NullFpmCipher();
 		}
@@ -312,15 +1127,21 @@ public class FpmCrypt {
 	/**
 	 * Get the FpmKeyGenerator which know how to convert password into
 	 * our cipher key. Currently only AES-256/PBKDF2-SHA256 is supported.
+	 * The Mac provider is the one chosen by CryptoProviderSelector, which
+	 * may instead choose the pure java HmacSha256PBKDF2KeyGenerator.
 	 * 
 	 * @param fpmFile
 	 * @return
 	 * @throws Exception
 	 */
 	protected static FpmKeyGenerator createKeyGenerator(FpmFile fpmFile) throws GeneralSecurityException {
-		if (FPM_CIPHER_AES_256.equals(fpmFile.getKeyInfo().getCipher())) {
-			return new PBKDF2FpmKeyGenerator();
-		} else if (FPM_CIPHER_NULL.equals(fpmFile.getKeyInfo().getCipher())) {
+		return createKeyGenerator(fpmFile.getKeyInfo());
+	}
+	
+	protected static FpmKeyGenerator createKeyGenerator(KeyInfo keyInfo) throws GeneralSecurityException {
+		if (FPM_CIPHER_AES_256.equals(keyInfo.getCipher())) {
+			return new PBKDF2FpmKeyGenerator(CryptoProviderSelector.getMacProvider());
+		} else if (FPM_CIPHER_NULL.equals(keyInfo.getCipher())) {
 			return new NullFpmKeyGenerator();
 		}
 		return null;
@@ -335,6 +1156,184 @@ public class FpmCrypt {
 		}
 	}
 	
+	/**
+	 * Generates the key for open() on its own thread, started as soon
+	 * as the parser reads KeyInfo, so the key derivation runs while the
+	 * rest of the file is parsed. The DerivedKey given to open(), then
+	 * the key cache, are checked first, on the same thread. Nothing is
+	 * started for an empty passphrase or a cipher without key generator,
+	 * open() reports those after parsing.
+	 */
+	protected class KeyGeneration implements KeyInfoListener {
+		
+		private final String password;
+		private final DerivedKey derivedKey;
+		private final ProgressMonitor monitor;
+		private volatile boolean isCanceled = false;
+		private volatile boolean isStarted = false;
+		private FutureTask<byte[]> task = null;
+		// guards isCanceled against the hand-off of generatedKey
+		private final Object lock = new Object();
+		private byte[] generatedKey = null;
+		
+		public KeyGeneration(String password, DerivedKey derivedKey, final ProgressMonitor monitor) {
+			this.password = password;
+			this.derivedKey = derivedKey;
+			// stops on cancel(), as well as when open() is canceled
+			this.monitor = new ProgressMonitor() {
+				@Override
+				public void setProgress(float fraction) {
+					monitor.setProgress(fraction);
+				}
+				
+				@Override
+				public boolean isCanceled() {
+					return isCanceled || monitor.isCanceled();
+				}
+			};
+		}
+		
+		@Override
+		public void onKeyInfo(KeyInfo keyInfo) {
+			if (task != null || StringUtils.isEmpty(password)) {
+				return;
+			}
+			final FpmKeyGenerator keyGenerator;
+			try {
+				keyGenerator = createKeyGenerator(keyInfo);
+			} catch (GeneralSecurityException e) {
+				// open() creates it again after parsing, and fails there
+				Log.w(TAG, "Failed to create key generator.", e);
+				return;
+			}
+			if (keyGenerator == null) {
+				return;
+			}
+			final String salt = keyInfo.getSalt();
+			final String kdf = keyInfo.getCipher();
+			task = new FutureTask<byte[]>(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					byte[] key = findKey(password, salt, kdf, derivedKey);
+					if (key == null) {
+						key = keyGenerator.generateKey(password, salt, monitor);
+					}
+					synchronized (lock) {
+						if (isCanceled) {
+							// nobody will take it
+							Arrays.fill(key, (byte)0);
+							throw new OperationCanceledException();
+						}
+						generatedKey = key;
+					}
+					return key;
+				}
+			});
+			isStarted = true;
+			new Thread(task, "FpmKeyGeneration").start();
+		}
+		
+		public boolean isStarted() {
+			return isStarted;
+		}
+		
+		/**
+		 * Monitor for parsing, which reports progress
+		 * only until key generation has started.
+		 * 
+		 * @param parseMonitor
+		 * @return
+		 */
+		public ProgressMonitor getParseMonitor(final ProgressMonitor parseMonitor) {
+			return new ProgressMonitor() {
+				@Override
+				public void setProgress(float fraction) {
+					if (!isStarted) {
+						parseMonitor.setProgress(fraction);
+					}
+				}
+				
+				@Override
+				public boolean isCanceled() {
+					return parseMonitor.isCanceled();
+				}
+			};
+		}
+		
+		/**
+		 * Wait for the key started by onKeyInfo().
+		 * 
+		 * @return
+		 * @throws GeneralSecurityException
+		 */
+		public byte[] getKey() throws GeneralSecurityException {
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof GeneralSecurityException) {
+					throw (GeneralSecurityException) e.getCause();
+				} else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		
+		/**
+		 * Stop key generation, if running, after open() failed.
+		 * A key already generated is wiped, one still being
+		 * generated is wiped by the task itself.
+		 */
+		public void cancel() {
+			synchronized (lock) {
+				isCanceled = true;
+				if (generatedKey != null) {
+					Arrays.fill(generatedKey, (byte)0);
+					generatedKey = null;
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Work done by runBatches() on items start (inclusive)
+	 * to end (exclusive).
+	 */
+	protected interface Batch {
+		void run(int start, int end);
+	}
+	
+	/**
+	 * Result of opening one file with openAll(). Either the
+	 * open crypt, or the exception which prevented opening it.
+	 */
+	public static class OpenResult {
+		
+		private final FpmCrypt fpmCrypt;
+		private final Exception exception;
+		
+		public OpenResult(FpmCrypt fpmCrypt, Exception exception) {
+			this.fpmCrypt = fpmCrypt;
+			this.exception = exception;
+		}
+		
+		public boolean isSuccess() {
+			return fpmCrypt != null;
+		}
+		
+		public FpmCrypt getFpmCrypt() {
+			return fpmCrypt;
+		}
+		
+		public Exception getException() {
+			return exception;
+		}
+		
+	}
+	
 	public static class FpmCipherUnsupportedException extends Exception {
 
 		private static final long serialVersionUID = 5884333303992753439L;
@@ -26,7 +26,9 @@ package org.braiden.fpm2;
  *
  */
 
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -306,11 +308,17 @@ public class PasswordItemListActivity extends ListActivity implements FpmBroadca
 		if (item != null) {
 			try {
 				String value = (String) PropertyUtils.getProperty(item, property);
+				ClipboardManager clipboard = (ClipboardManager) activity.getSystemService(CLIPBOARD_SERVICE);
 				if (FpmCrypt.PROPERTY_PASSWORD.equals(property)) {
-					value = app.decrypt(value);
+					// decrypt to a char[] we can wipe, rather than a String
+					CharBuffer password = app.decryptChars(value);
+					if (password != null) {
+						clipboard.setText(password);
+						Arrays.fill(password.array(), '\0');
+					}
+				} else {
+					clipboard.setText(value);
 				}
-				ClipboardManager clipboard = (ClipboardManager) activity.getSystemService(CLIPBOARD_SERVICE);
-				clipboard.setText(value);
 			} catch (Exception e) {
 				Log.w(TAG, "Failed to access property \"" + property + "\" of item id " + id + ".", e);
 			}
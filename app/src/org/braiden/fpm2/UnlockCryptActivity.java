@@ -34,7 +34,10 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -49,16 +52,24 @@ import android.widget.TextView;
  * @author braiden
  *
  */
-public class UnlockCryptActivity extends Activity implements FpmBroadcastReceiver.Listener {
+public class UnlockCryptActivity extends Activity implements FpmBroadcastReceiver.ProgressListener {
 	
 	public static final int UNLOCK_CRYPT_REQUEST_CODE = 10;
 	
+	// how long typing must pause before key generation starts
+	public static final long SPECULATIVE_KEY_DELAY = 700L;
+	
 	private static boolean isUnlockActivityRunning = false;
 	
 	private LayoutInflater layoutInflater;
 	private FpmBroadcastReceiver broadcastReceiver;
 	private AlertDialog passphraseDialog = null;
+	private AlertDialog pinDialog = null;
+	// user chose passphrase over quick unlock PIN
+	private boolean isPassphraseRequested = false;
 	private ProgressDialog progressDialog = null;
+	private Handler handler;
+	private Runnable speculateKey = null;
 	
 	protected FpmApplication getFpmApplication() {
 		return (FpmApplication) getApplication();
@@ -78,11 +89,18 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 		super.onCreate(savedInstanceState);
 		layoutInflater = LayoutInflater.from(this);
 		broadcastReceiver = new FpmBroadcastReceiver(this);
+		handler = new Handler();
 	}
 
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
+		// an unlock in progress continues, a recreated
+		// activity shows its progress again (onFpmLock).
+		dismissDialogs();
+		if (speculateKey != null) {
+			handler.removeCallbacks(speculateKey);
+		}
 		broadcastReceiver.unregister();
 		isUnlockActivityRunning = false;
 	}
@@ -157,14 +175,33 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 	@Override
 	public void onFpmLock() {
 		if (getFpmApplication().getCryptState() != FpmApplication.STATE_BUSY) {
+			// an unlock may have just been canceled
+			if (progressDialog != null) {
+				progressDialog.dismiss();
+				progressDialog = null;
+			}
 			if (!handleMissingFpmFile()) {
-				createPassphraseDialog().show();
+				if (!isPassphraseRequested && getFpmApplication().hasQuickUnlock()) {
+					createPinDialog().show();
+				} else {
+					createPassphraseDialog().show();
+				}
 			}
 		} else {
 			createProgressDialog().show();
 		}		
 	}
 	
+	/**
+	 * Callback as an unlock progresses.
+	 */
+	@Override
+	public void onFpmProgress(int percent) {
+		if (progressDialog != null) {
+			progressDialog.setProgress(percent);
+		}
+	}
+	
 	private boolean handleMissingFpmFile() {
 		boolean fpmFileOk = getFpmApplication().fpmFileExists();
 
@@ -183,6 +220,10 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 			passphraseDialog.dismiss();
 		}
 		
+		if (pinDialog != null) {
+			pinDialog.dismiss();
+		}
+		
 		if (progressDialog != null) {
 			progressDialog.dismiss();
 			// progress dialog can't be
@@ -192,12 +233,23 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 	}
 
 	/**
-	 * Callback once the user has entered a passphrase.
+	 * Callback once the user has entered a passphrase,
+	 * and optionally a new quick unlock PIN.
 	 * @param passphrase
+	 * @param pin
+	 */
+	protected void onFpmPassphraseOk(String passphrase, String pin) {
+		getFpmApplication().openCrypt(passphrase, pin);
+		createProgressDialog().show();
+	}
+	
+	/**
+	 * Callback once the user has entered the quick unlock PIN.
+	 * @param pin
 	 */
-	protected void onFpmPassphraseOk(String passphrase) {
+	protected void onFpmPinOk(String pin) {
+		getFpmApplication().openCryptWithPin(pin);
 		createProgressDialog().show();
-		getFpmApplication().openCrypt(passphrase);
 	}
 		
 	/**
@@ -205,6 +257,10 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 	 */
 	protected void onFpmPassphraseCancel() {
 		android.util.Log.d(PasswordItemListActivity.TAG, "onFpmPassphraseCancel()");
+		if (speculateKey != null) {
+			handler.removeCallbacks(speculateKey);
+		}
+		getFpmApplication().cancelSpeculativeKey();
 		setResult(RESULT_CANCELED);
 		finish();
 	}
@@ -248,6 +304,7 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 	
 	/**
 	 * Create progress dialog for "Checking Passphrase..."
+	 * Cancel button aborts the unlock.
 	 * @return
 	 */
 	protected Dialog createProgressDialog() {
@@ -255,7 +312,18 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 			progressDialog = new ProgressDialog(this);
 			progressDialog.setMessage(getResources().getString(R.string.checking_passphrase));
 			progressDialog.setCancelable(false);
-			progressDialog.setIndeterminate(true);
+			progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+			progressDialog.setIndeterminate(false);
+			progressDialog.setMax(100);
+			progressDialog.setProgress(getFpmApplication().getUnlockProgress());
+			progressDialog.setButton(getResources().getString(R.string.passphrase_dialog_cancel), new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					dialog.dismiss();
+					progressDialog = null;
+					getFpmApplication().cancelOpenCrypt();
+				}
+			});
 		}
 		return progressDialog;
 	}
@@ -268,6 +336,17 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 		if (passphraseDialog == null ) {		
 			View textEntryView = layoutInflater.inflate(R.layout.passphrase_dialog, null);
 			final EditText editText = (EditText) textEntryView.findViewById(R.id.password_edit);
+			final EditText pinEditText = (EditText) textEntryView.findViewById(R.id.quick_pin_edit);
+			if (getFpmApplication().isQuickUnlockEnabled()) {
+				textEntryView.findViewById(R.id.quick_pin_view).setVisibility(View.VISIBLE);
+				pinEditText.setVisibility(View.VISIBLE);
+			}
+			speculateKey = new Runnable() {
+				@Override
+				public void run() {
+					getFpmApplication().speculateKey(editText.getText().toString());
+				}
+			};
 			passphraseDialog =  new AlertDialog.Builder(this)
         		.setTitle(R.string.passphrase_dialog_title)
         		.setView(textEntryView)
@@ -277,8 +356,10 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
         			public void onClick(DialogInterface dialog, int which) {
         				dialog.dismiss();
         				String passphrase = editText.getText().toString();
+        				String pin = pinEditText.getText().toString();
         				editText.setText("");
-        				onFpmPassphraseOk(passphrase);
+        				pinEditText.setText("");
+        				onFpmPassphraseOk(passphrase, pin);
         			}
         		})
         		.setNegativeButton(R.string.passphrase_dialog_cancel, new DialogInterface.OnClickListener() {
@@ -301,15 +382,101 @@ public class UnlockCryptActivity extends Activity implements FpmBroadcastReceive
 				public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
 					passphraseDialog.dismiss();
     				String passphrase = editText.getText().toString();
+    				String pin = pinEditText.getText().toString();
     				editText.setText("");
-    				onFpmPassphraseOk(passphrase);
+    				pinEditText.setText("");
+    				onFpmPassphraseOk(passphrase, pin);
 					return true;
 				}
 			});
+			editText.addTextChangedListener(new TextWatcher() {
+				@Override
+				public void afterTextChanged(Editable s) {
+					// every keystroke restarts the pause timer,
+					// and discards key generated for older text.
+					// (text is also cleared on submit, that must
+					// not cancel key generation for the passphrase)
+					handler.removeCallbacks(speculateKey);
+					if (s.length() > 0) {
+						getFpmApplication().cancelSpeculativeKey();
+						handler.postDelayed(speculateKey, SPECULATIVE_KEY_DELAY);
+					}
+				}
+				
+				@Override
+				public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+				}
+				
+				@Override
+				public void onTextChanged(CharSequence s, int start, int before, int count) {
+				}
+			});
 		}
 		return passphraseDialog;
 	}
 	
+	/**
+	 * Create dialog for quick unlock PIN prompt.
+	 * @return
+	 */
+	protected Dialog createPinDialog() {
+		if (pinDialog == null) {
+			View textEntryView = layoutInflater.inflate(R.layout.pin_dialog, null);
+			final EditText editText = (EditText) textEntryView.findViewById(R.id.pin_edit);
+			pinDialog = new AlertDialog.Builder(this)
+				.setTitle(R.string.pin_dialog_title)
+				.setView(textEntryView)
+				.setMessage("")
+				.setCancelable(true)
+				.setPositiveButton(R.string.passphrase_dialog_ok, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.dismiss();
+						String pin = editText.getText().toString();
+						editText.setText("");
+						onFpmPinOk(pin);
+					}
+				})
+				.setNeutralButton(R.string.pin_dialog_use_passphrase, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.dismiss();
+						editText.setText("");
+						isPassphraseRequested = true;
+						// window focus change will prompt for passphrase
+					}
+				})
+				.setNegativeButton(R.string.passphrase_dialog_cancel, new DialogInterface.OnClickListener() {
+					@Override
+					public void onClick(DialogInterface dialog, int which) {
+						dialog.dismiss();
+						onFpmPassphraseCancel();
+					}
+				})
+				.setOnCancelListener(new DialogInterface.OnCancelListener() {
+					@Override
+					public void onCancel(DialogInterface dialog) {
+						dialog.dismiss();
+						onFpmPassphraseCancel();
+					}
+				})
+				.create();
+			editText.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+				@Override
+				public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+					pinDialog.dismiss();
+					String pin = editText.getText().toString();
+					editText.setText("");
+					onFpmPinOk(pin);
+					return true;
+				}
+			});
+		}
+		pinDialog.setMessage(String.format(getResources().getString(R.string.pin_dialog_attempts),
+				getFpmApplication().getQuickUnlockAttemptsRemaining()));
+		return pinDialog;
+	}
+	
 	protected int getExtendedErrorMessage(int shortmsg) {
 		switch (shortmsg) {
 			case R.string.exception_file_not_found:
@@ -26,6 +26,9 @@ package org.braiden.fpm2;
  *
  */
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
 import org.braiden.fpm2.model.PasswordItem;
 import org.braiden.fpm2.util.PropertyUtils;
 
@@ -62,6 +65,9 @@ public class ViewPasswordItemActivity extends ListActivity {
 	private long id;
 	private BroadcastReceiver receiver;
 	private boolean isPasswordDisplayed = false;
+	// decrypted password, shared with the TextView displaying it
+	// (setText(char[]...) does not copy) and wiped in onDestroy()
+	private CharBuffer password;
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -103,6 +109,10 @@ public class ViewPasswordItemActivity extends ListActivity {
 	protected void onDestroy() {
 		super.onDestroy();
 		unregisterReceiver(receiver);
+		if (password != null) {
+			Arrays.fill(password.array(), '\0');
+			password = null;
+		}
 	}
 
 	@Override
@@ -140,13 +150,12 @@ public class ViewPasswordItemActivity extends ListActivity {
 		super.onListItemClick(l, v, position, id);
 		// clicking on the password item, causes the "****" to be replaced with real password.
 		if (PasswordItemPropertyListAdapter.TITLES[position] == R.string.password_item_password) {
-			FpmApplication app = ((FpmApplication) getApplication());
-			PasswordItem item = app.getPasswordItemById(this.id);
+			PasswordItem item = ((FpmApplication) getApplication()).getPasswordItemById(this.id);
 			if (item != null) {
-				String password = app.decrypt(item.getPassword());
+				CharBuffer password = getPassword(item);
 				if (password != null) {
 					TextView text = (TextView) v.findViewById(R.id.passwordItemPropertyRowValue);
-					text.setText(password);
+					text.setText(password.array(), 0, password.limit());
 					isPasswordDisplayed = true;
 				}
 			}
@@ -155,6 +164,19 @@ public class ViewPasswordItemActivity extends ListActivity {
 		}
 	}
 
+	/**
+	 * Decrypt the item's password, once.
+	 * 
+	 * @param item
+	 * @return null if it could not be decrypted
+	 */
+	private CharBuffer getPassword(PasswordItem item) {
+		if (password == null) {
+			password = ((FpmApplication) getApplication()).decryptChars(item.getPassword());
+		}
+		return password;
+	}
+
 	public static class PasswordItemPropertyListAdapter extends BaseAdapter {
 				
 		public static final int[] TITLES = {
@@ -235,9 +257,10 @@ public class ViewPasswordItemActivity extends ListActivity {
 					}
 				} else if (activity.isPasswordDisplayed) {
 					// the password is being displayed. decrypt and show
-					FpmApplication app = ((FpmApplication) activity.getApplication());
-					String cypherText = (String) PropertyUtils.getProperty(passwordItem, PROPERTIES[position]);
-					viewHolder.value.setText(app.decrypt(cypherText));
+					CharBuffer password = activity.getPassword(passwordItem);
+					if (password != null) {
+						viewHolder.value.setText(password.array(), 0, password.limit());
+					}
 				} else {
 					// .getPassword returns the FPM encrypted string. display **** instead.
 					viewHolder.value.setText("********");
@@ -0,0 +1,254 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Pick the fastest JCE provider for the Mac and Cipher used by
+ * FPM's AES-256 format. Each installed provider implementing the
+ * algorithm is timed on a small fixed workload, resembling what
+ * FpmCrypt does on unlock: a short PBKDF2 run for the Mac, and
+ * decrypting many short fields with one key for the Cipher.
+ * 
+ * The pure java TableAESFpmCipher is a candidate for the Cipher too,
+ * under the name TableAESFpmCipher.PROVIDER_NAME, and likewise
+ * HmacSha256PBKDF2KeyGenerator for the Mac, under its PROVIDER_NAME.
+ * 
+ * The selection is held statically and used by FpmCrypt when
+ * creating ciphers and key generators. A null provider means the
+ * JCE default. Calibrating takes a moment, callers are expected to
+ * run it once per device (off the UI thread) and restore the result
+ * with setMacProvider() and setCipherProvider() afterwards.
+ * 
+ * @author braiden
+ *
+ */
+
+public class CryptoProviderSelector {
+
+	public static final String MAC_ALGORITHM = PBKDF2FpmKeyGenerator.DEFAULT_HMAC_ALGORITH;
+	public static final String CIPHER_ALGORITHM = JCEFpmCipher.DEFAULT_CIPHER;
+	
+	// size of the timed workloads
+	public static final int MAC_WORKLOAD_ITERATIONS = 1024;
+	public static final int CIPHER_WORKLOAD_FIELDS = 256;
+	public static final int CIPHER_WORKLOAD_FIELD_LENGTH_BYTES = 64;
+	// each workload is run this many times, best time is used
+	// (so the first run doubles as warm up)
+	private static final int ROUNDS = 3;
+	
+	private static volatile String macProvider = null;
+	private static volatile String cipherProvider = null;
+	
+	private CryptoProviderSelector() {
+		
+	}
+	
+	/**
+	 * Time all providers, and use the fastest from now on.
+	 */
+	public static void calibrate() {
+		macProvider = selectMacProvider();
+		cipherProvider = selectCipherProvider();
+	}
+	
+	/**
+	 * Get name of the fastest provider of MAC_ALGORITHM,
+	 * or null if none could be used.
+	 * 
+	 * @return
+	 */
+	public static String selectMacProvider() {
+		String result = null;
+		long bestTime = Long.MAX_VALUE;
+		long engineTime = timeMacEngine();
+		if (engineTime >= 0) {
+			bestTime = engineTime;
+			result = HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME;
+		}
+		for (Provider provider : Security.getProviders()) {
+			long time = timeMac(provider.getName());
+			if (time >= 0 && time < bestTime) {
+				bestTime = time;
+				result = provider.getName();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Get name of the fastest provider of CIPHER_ALGORITHM,
+	 * or null if none could be used.
+	 * 
+	 * @return
+	 */
+	public static String selectCipherProvider() {
+		String result = null;
+		long bestTime = Long.MAX_VALUE;
+		long tableTime = timeTableCipher();
+		if (tableTime >= 0) {
+			bestTime = tableTime;
+			result = TableAESFpmCipher.PROVIDER_NAME;
+		}
+		for (Provider provider : Security.getProviders()) {
+			long time = timeCipher(provider.getName());
+			if (time >= 0 && time < bestTime) {
+				bestTime = time;
+				result = provider.getName();
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Nanoseconds for the Mac workload on the given provider,
+	 * or -1 if the provider does not support it.
+	 * 
+	 * @param provider
+	 * @return
+	 */
+	protected static long timeMac(String provider) {
+		try {
+			return timeKeyGenerator(new PBKDF2KeyGenerator(PBKDF2FpmKeyGenerator.DEFAULT_KEY_LENGTH_BYTES,
+					MAC_WORKLOAD_ITERATIONS, MAC_ALGORITHM, true, provider));
+		} catch (Exception e) {
+			// any failure (not just GeneralSecurityException)
+			// just means this provider is not a candidate.
+			return -1;
+		}
+	}
+	
+	/**
+	 * Nanoseconds for the Mac workload on HmacSha256PBKDF2KeyGenerator.
+	 * 
+	 * @return
+	 */
+	protected static long timeMacEngine() {
+		try {
+			return timeKeyGenerator(new HmacSha256PBKDF2KeyGenerator(PBKDF2FpmKeyGenerator.DEFAULT_KEY_LENGTH_BYTES,
+					MAC_WORKLOAD_ITERATIONS));
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+	
+	private static long timeKeyGenerator(PBKDF2KeyGenerator keyGenerator) throws GeneralSecurityException {
+		byte[] salt = new byte[PBKDF2FpmKeyGenerator.DEFAULT_KEY_LENGTH_BYTES / 2];
+		long result = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			keyGenerator.generateKey("calibrate", salt);
+			result = Math.min(result, System.nanoTime() - start);
+		}
+		return result;
+	}
+	
+	/**
+	 * Nanoseconds for the Cipher workload on the given provider,
+	 * or -1 if the provider does not support it.
+	 * 
+	 * @param provider
+	 * @return
+	 */
+	protected static long timeCipher(String provider) {
+		try {
+			Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM, provider);
+			SecretKeySpec key = new SecretKeySpec(new byte[PBKDF2FpmKeyGenerator.DEFAULT_KEY_LENGTH_BYTES], JCEFpmCipher.getKeyAlgorithm(CIPHER_ALGORITHM));
+			byte[] input = new byte[CIPHER_WORKLOAD_FIELD_LENGTH_BYTES];
+			byte[] output = new byte[CIPHER_WORKLOAD_FIELD_LENGTH_BYTES];
+			long result = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				// as in a cipher session, key is set up once
+				cipher.init(Cipher.DECRYPT_MODE, key);
+				for (int n = 0; n < CIPHER_WORKLOAD_FIELDS; n++) {
+					cipher.doFinal(input, 0, input.length, output, 0);
+				}
+				result = Math.min(result, System.nanoTime() - start);
+			}
+			return result;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Nanoseconds for the Cipher workload on TableAESFpmCipher.
+	 * 
+	 * @return
+	 */
+	protected static long timeTableCipher() {
+		try {
+			TableAESDecryptor aes = new TableAESDecryptor(new byte[PBKDF2FpmKeyGenerator.DEFAULT_KEY_LENGTH_BYTES]);
+			byte[] data = new byte[CIPHER_WORKLOAD_FIELD_LENGTH_BYTES];
+			long result = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				for (int n = 0; n < CIPHER_WORKLOAD_FIELDS; n++) {
+					aes.decryptBlocks(data, 0, data.length);
+				}
+				result = Math.min(result, System.nanoTime() - start);
+			}
+			return result;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Returns name, or null (the default provider)
+	 * if name is no longer installed.
+	 */
+	private static String installedOrNull(String name) {
+		return name == null || Security.getProvider(name) == null ? null : name;
+	}
+
+	public static String getMacProvider() {
+		return macProvider;
+	}
+
+	public static void setMacProvider(String macProvider) {
+		CryptoProviderSelector.macProvider = HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME.equals(macProvider)
+				? macProvider : installedOrNull(macProvider);
+	}
+
+	public static String getCipherProvider() {
+		return cipherProvider;
+	}
+
+	public static void setCipherProvider(String cipherProvider) {
+		CryptoProviderSelector.cipherProvider = TableAESFpmCipher.PROVIDER_NAME.equals(cipherProvider)
+				? cipherProvider : installedOrNull(cipherProvider);
+	}
+	
+}
@@ -0,0 +1,91 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.util.Arrays;
+
+/**
+ * One derived key, and the salt and parameters it was derived with,
+ * held for a single later use, e.g. a key derived while the
+ * passphrase was still being typed. Unlike DerivedKeyCache it is
+ * not looked up by passphrase, the holder decides who gets it.
+ * 
+ * @author braiden
+ *
+ */
+
+public class DerivedKey {
+
+	private final String salt;
+	private final String parameters;
+	private byte[] key;
+	
+	/**
+	 * @param salt
+	 * @param parameters
+	 * @param key copied, caller remains responsible for wiping its array
+	 */
+	public DerivedKey(String salt, String parameters, byte[] key) {
+		this.salt = salt;
+		this.parameters = parameters;
+		this.key = key.clone();
+	}
+	
+	/**
+	 * Take the key, if it was derived with this salt and parameters.
+	 * Either way, the key can only be taken once, after which this
+	 * object holds nothing.
+	 * 
+	 * @param salt
+	 * @param parameters
+	 * @return the key, which the caller must wipe, or null
+	 */
+	public synchronized byte[] take(String salt, String parameters) {
+		byte[] result = key;
+		key = null;
+		if (result != null && !(this.salt.equals(salt) && this.parameters.equals(parameters))) {
+			Arrays.fill(result, (byte)0);
+			result = null;
+		}
+		return result;
+	}
+	
+	/**
+	 * Wipe the key, if not already taken.
+	 */
+	public synchronized void destroy() {
+		if (key != null) {
+			Arrays.fill(key, (byte)0);
+			key = null;
+		}
+	}
+	
+	public synchronized boolean isDestroyed() {
+		return key == null;
+	}
+	
+}
@@ -0,0 +1,249 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.braiden.fpm2.util.HexUtils;
+
+/**
+ * In memory cache of keys produced by an FpmKeyGenerator.
+ * 
+ * Entries are looked up by a fingerprint of the passphrase, salt
+ * and KDF parameters. The fingerprint is itself a (cheaper) PBKDF2
+ * with a random per-cache salt, so the cache never holds the
+ * passphrase or a fast hash of it. Keys are wiped when they expire,
+ * are removed, or the cache is cleared.
+ * 
+ * A cache with a timeToLive <= 0 is disabled, put() without an
+ * explicit time to live has no effect.
+ * 
+ * @author braiden
+ *
+ */
+
+public class DerivedKeyCache {
+
+	public static final int FINGERPRINT_ITERATIONS = 512;
+	public static final int FINGERPRINT_SALT_LENGTH_BYTES = 16;
+	
+	private final byte[] fingerprintSalt = new byte[FINGERPRINT_SALT_LENGTH_BYTES];
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private PBKDF2KeyGenerator fingerprintGenerator;
+	private long timeToLive;
+	private Timer timer;
+	
+	public DerivedKeyCache() {
+		this(0L);
+	}
+	
+	public DerivedKeyCache(long timeToLiveMilliseconds) {
+		this.timeToLive = timeToLiveMilliseconds;
+		new SecureRandom().nextBytes(fingerprintSalt);
+	}
+	
+	/**
+	 * Get a copy of the cached key, or null if not found or expired.
+	 * 
+	 * @param secret
+	 * @param salt
+	 * @param parameters
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] get(String secret, String salt, String parameters) throws GeneralSecurityException {
+		if (isEmpty()) {
+			// nothing to find, don't derive a fingerprint of the secret
+			return null;
+		}
+		String fingerprint = fingerprint(secret, salt, parameters);
+		synchronized (this) {
+			Entry entry = entries.get(fingerprint);
+			if (entry == null) {
+				return null;
+			} else if (entry.isExpired()) {
+				remove(fingerprint, entry);
+				return null;
+			}
+			return entry.key.clone();
+		}
+	}
+	
+	/**
+	 * Cache a copy of key for the cache's timeToLive.
+	 * 
+	 * @param secret
+	 * @param salt
+	 * @param parameters
+	 * @param key
+	 * @throws GeneralSecurityException
+	 */
+	public void put(String secret, String salt, String parameters, byte[] key) throws GeneralSecurityException {
+		put(secret, salt, parameters, key, getTimeToLive());
+	}
+	
+	/**
+	 * Cache a copy of key for the given number of milliseconds.
+	 * 
+	 * @param secret
+	 * @param salt
+	 * @param parameters
+	 * @param key
+	 * @param timeToLiveMilliseconds
+	 * @throws GeneralSecurityException
+	 */
+	public void put(String secret, String salt, String parameters, byte[] key, long timeToLiveMilliseconds) throws GeneralSecurityException {
+		if (timeToLiveMilliseconds <= 0) {
+			// cache disabled
+			remove(secret, salt, parameters);
+			return;
+		}
+		
+		final String fingerprint = fingerprint(secret, salt, parameters);
+		final Entry entry = new Entry(key.clone(), System.currentTimeMillis() + timeToLiveMilliseconds);
+		
+		synchronized (this) {
+			remove(fingerprint, entries.get(fingerprint));
+			entries.put(fingerprint, entry);
+			if (timer == null) {
+				timer = new Timer(true);
+			}
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					synchronized (DerivedKeyCache.this) {
+						remove(fingerprint, entry);
+					}
+				}
+			}, timeToLiveMilliseconds);
+		}
+	}
+	
+	public void remove(String secret, String salt, String parameters) throws GeneralSecurityException {
+		if (isEmpty()) {
+			return;
+		}
+		String fingerprint = fingerprint(secret, salt, parameters);
+		synchronized (this) {
+			remove(fingerprint, entries.get(fingerprint));
+		}
+	}
+	
+	/**
+	 * Wipe and remove all cached keys.
+	 */
+	public synchronized void clear() {
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+			i.next().wipe();
+			i.remove();
+		}
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+	
+	/**
+	 * True if no keys are cached, get() and remove() then return
+	 * without fingerprinting the secret (which is itself cheaper
+	 * to brute force than the key).
+	 * 
+	 * @return
+	 */
+	public synchronized boolean isEmpty() {
+		return entries.isEmpty();
+	}
+	
+	public synchronized long getTimeToLive() {
+		return timeToLive;
+	}
+	
+	/**
+	 * Set the default time to live. If the new value is
+	 * <= 0 the cache is disabled and cleared.
+	 * 
+	 * @param timeToLiveMilliseconds
+	 */
+	public synchronized void setTimeToLive(long timeToLiveMilliseconds) {
+		this.timeToLive = timeToLiveMilliseconds;
+		if (timeToLiveMilliseconds <= 0) {
+			clear();
+		}
+	}
+	
+	private void remove(String fingerprint, Entry entry) {
+		if (entry != null && entries.get(fingerprint) == entry) {
+			entries.remove(fingerprint);
+			entry.wipe();
+		}
+	}
+	
+	private String fingerprint(String secret, String salt, String parameters) throws GeneralSecurityException {
+		byte[] saltBytes = (salt + "\0" + parameters).getBytes();
+		byte[] fingerprintInput = new byte[fingerprintSalt.length + saltBytes.length];
+		System.arraycopy(fingerprintSalt, 0, fingerprintInput, 0, fingerprintSalt.length);
+		System.arraycopy(saltBytes, 0, fingerprintInput, fingerprintSalt.length, saltBytes.length);
+		byte[] fingerprint;
+		synchronized (fingerprintSalt) {
+			if (fingerprintGenerator == null) {
+				fingerprintGenerator = new HmacSha256PBKDF2KeyGenerator(32, FINGERPRINT_ITERATIONS);
+			}
+			fingerprint = fingerprintGenerator.generateKey(secret, fingerprintInput);
+		}
+		String result = HexUtils.toHex(fingerprint);
+		Arrays.fill(fingerprint, (byte)0);
+		return result;
+	}
+	
+	private static class Entry {
+		
+		private final byte[] key;
+		private final long expires;
+		
+		public Entry(byte[] key, long expires) {
+			this.key = key;
+			this.expires = expires;
+		}
+		
+		public boolean isExpired() {
+			return System.currentTimeMillis() >= expires;
+		}
+		
+		public void wipe() {
+			Arrays.fill(key, (byte)0);
+		}
+		
+	}
+	
+}
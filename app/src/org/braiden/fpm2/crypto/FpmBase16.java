@@ -0,0 +1,206 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * FPM's base16 encoding, one byte as two characters 'a' (0)
+ * to 'p' (15), high nibble first.
+ * 
+ * Decoding is table driven and writes into a buffer supplied by
+ * the caller, so no memory is allocated per field. Any character
+ * outside 'a'..'p', or an odd number of characters, is reported
+ * with an IllegalArgumentException.
+ * 
+ * @author braiden
+ *
+ */
+
+public class FpmBase16 {
+
+	private static final char[] ENCODE = "abcdefghijklmnop".toCharArray();
+	// nibble value of 7-bit chars, -1 for chars outside 'a'..'p'
+	private static final byte[] DECODE = new byte[128];
+	
+	static {
+		for (int n = 0; n < DECODE.length; n++) {
+			DECODE[n] = -1;
+		}
+		for (int n = 0; n < ENCODE.length; n++) {
+			DECODE[ENCODE[n]] = (byte) n;
+		}
+	}
+	
+	private FpmBase16() {
+		
+	}
+	
+	/**
+	 * Number of bytes encoded by encodedLength characters.
+	 * 
+	 * @param encodedLength
+	 * @return
+	 */
+	public static int decodedLength(int encodedLength) {
+		if ((encodedLength & 1) != 0) {
+			throw new IllegalArgumentException("FPM base16 data has odd length " + encodedLength + ".");
+		}
+		return encodedLength / 2;
+	}
+	
+	public static byte[] decode(CharSequence src) {
+		byte[] result = new byte[decodedLength(src.length())];
+		decode(src, 0, src.length(), result, 0);
+		return result;
+	}
+	
+	public static int decode(CharSequence src, byte[] dst, int dstOffset) {
+		return decode(src, 0, src.length(), dst, dstOffset);
+	}
+	
+	/**
+	 * Decode srcLength characters of src, starting at srcOffset,
+	 * into dst at dstOffset.
+	 * 
+	 * @param src
+	 * @param srcOffset
+	 * @param srcLength
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of bytes written
+	 */
+	public static int decode(CharSequence src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+		int length = decodedLength(srcLength);
+		for (int n = 0, s = srcOffset; n < length; n++, s += 2) {
+			dst[dstOffset + n] = decodeByte(src.charAt(s), src.charAt(s + 1), s);
+		}
+		return length;
+	}
+	
+	/**
+	 * Same as decode(CharSequence, ...) for a char[].
+	 * 
+	 * @param src
+	 * @param srcOffset
+	 * @param srcLength
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of bytes written
+	 */
+	public static int decode(char[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+		int length = decodedLength(srcLength);
+		for (int n = 0, s = srcOffset; n < length; n++, s += 2) {
+			dst[dstOffset + n] = decodeByte(src[s], src[s + 1], s);
+		}
+		return length;
+	}
+	
+	/**
+	 * Decode all remaining bytes of src, ASCII characters as they
+	 * appear in an FPM file, into dst at dstOffset. src's position
+	 * is advanced to its limit, or left unchanged if src is invalid.
+	 * 
+	 * @param src
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of bytes written
+	 */
+	public static int decode(ByteBuffer src, byte[] dst, int dstOffset) {
+		int length = decodedLength(src.remaining());
+		for (int n = 0, s = src.position(); n < length; n++, s += 2) {
+			dst[dstOffset + n] = decodeByte((char) (src.get(s) & 0xff), (char) (src.get(s + 1) & 0xff), s);
+		}
+		src.position(src.limit());
+		return length;
+	}
+	
+	public static String encode(byte[] src) {
+		return encode(src, 0, src.length);
+	}
+	
+	public static String encode(byte[] src, int srcOffset, int srcLength) {
+		char[] result = new char[srcLength * 2];
+		encode(src, srcOffset, srcLength, result, 0);
+		return new String(result);
+	}
+	
+	/**
+	 * Encode srcLength bytes of src, starting at srcOffset,
+	 * into dst at dstOffset.
+	 * 
+	 * @param src
+	 * @param srcOffset
+	 * @param srcLength
+	 * @param dst
+	 * @param dstOffset
+	 * @return number of chars written
+	 */
+	public static int encode(byte[] src, int srcOffset, int srcLength, char[] dst, int dstOffset) {
+		for (int n = 0, d = dstOffset; n < srcLength; n++, d += 2) {
+			int b = src[srcOffset + n];
+			dst[d] = ENCODE[(b >> 4) & 0x0f];
+			dst[d + 1] = ENCODE[b & 0x0f];
+		}
+		return srcLength * 2;
+	}
+	
+	/**
+	 * Encode srcLength bytes of src, starting at srcOffset,
+	 * into dst as ASCII characters.
+	 * 
+	 * @param src
+	 * @param srcOffset
+	 * @param srcLength
+	 * @param dst
+	 * @return number of bytes written
+	 * @throws java.nio.BufferOverflowException if dst has less than srcLength * 2 remaining
+	 */
+	public static int encode(byte[] src, int srcOffset, int srcLength, ByteBuffer dst) {
+		if (dst.remaining() < srcLength * 2) {
+			throw new BufferOverflowException();
+		}
+		for (int n = 0; n < srcLength; n++) {
+			int b = src[srcOffset + n];
+			dst.put((byte) ENCODE[(b >> 4) & 0x0f]);
+			dst.put((byte) ENCODE[b & 0x0f]);
+		}
+		return srcLength * 2;
+	}
+	
+	private static byte decodeByte(char high, char low, int index) {
+		// an invalid nibble is -1, which makes value negative.
+		// chars >= 128 are masked into the table, so check separately.
+		int value = (DECODE[high & 0x7f] << 4) | DECODE[low & 0x7f];
+		if (value < 0 || ((high | low) & ~0x7f) != 0) {
+			throw new IllegalArgumentException("Invalid FPM base16 data at index " + index + ".");
+		}
+		return (byte) value;
+	}
+	
+}
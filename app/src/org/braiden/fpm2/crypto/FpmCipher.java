@@ -1,5 +1,6 @@
 package org.braiden.fpm2.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 /*
@@ -52,6 +53,32 @@ public interface FpmCipher {
 	 */
 	byte[] decryptRaw(byte[] key, String encryptedData) throws GeneralSecurityException;
 	
+	/**
+	 * Same as decryptRaw(), for the FPM encoded data held as ASCII
+	 * in src's remaining bytes. The result is put into dst. Either
+	 * buffer may be direct, no intermediate arrays are allocated.
+	 * 
+	 * @param key
+	 * @param src
+	 * @param dst
+	 * @return number of bytes put into dst
+	 * @throws GeneralSecurityException
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 */
+	int decryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException;
+	
+	/**
+	 * Decrypt many FPM encoded strings with one key. Same result
+	 * as calling decrypt() for each, but ciphers in ECB mode can
+	 * process all fields with a few large cipher calls.
+	 * 
+	 * @param key
+	 * @param encryptedData
+	 * @return plain text for each element of encryptedData
+	 * @throws GeneralSecurityException
+	 */
+	String[] decrypt(byte[] key, String[] encryptedData) throws GeneralSecurityException;
+	
 	/**
 	 * Given key, and plain text string encrypt to FPM2's rules.
 	 * Ensuring '\00' terminated C string and randomg data padding
@@ -64,6 +91,18 @@ public interface FpmCipher {
 	 */
 	String encrypt(byte[] key, String plainText) throws GeneralSecurityException;
 	
+	/**
+	 * Same as encrypt(), with random padding to at least
+	 * minLengthBytes. FPM pads passwords to a fixed length.
+	 * 
+	 * @param key
+	 * @param plainText
+	 * @param minLengthBytes
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String encrypt(byte[] key, String plainText, int minLengthBytes) throws GeneralSecurityException;
+	
 	/**
 	 * Rotate and encode the given byte[] using FPM's cipher.
 	 * 
@@ -74,4 +113,27 @@ public interface FpmCipher {
 	 */
 	String encryptRaw(byte[] key, byte clear[]) throws GeneralSecurityException;
 	
+	/**
+	 * Same as encryptRaw(), for src's remaining bytes. The FPM
+	 * encoded result is put into dst as ASCII.
+	 * 
+	 * @param key
+	 * @param src
+	 * @param dst
+	 * @return number of bytes put into dst
+	 * @throws GeneralSecurityException
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 */
+	int encryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException;
+	
+	/**
+	 * Create a session for decrypting and encrypting many
+	 * values with the same key. The key is copied.
+	 * 
+	 * @param key
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	FpmCipherSession createSession(byte[] key) throws GeneralSecurityException;
+	
 }
@@ -0,0 +1,142 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * An FpmCipher bound to one key, created by FpmCipher.createSession().
+ * Implementations do any per-key setup (e.g. AES key expansion) once,
+ * when the session is created, rather than for every field.
+ * 
+ * close() wipes the session's copy of the key, the session can not
+ * be used afterwards.
+ * 
+ * @author braiden
+ *
+ */
+
+public interface FpmCipherSession {
+
+	/**
+	 * Same as FpmCipher.decrypt(), using the session's key.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String decrypt(String encryptedData) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.decrypt(String[]), using the session's key.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String[] decrypt(String[] encryptedData) throws GeneralSecurityException;
+	
+	/**
+	 * Decrypt into dst, at its position, without creating a String.
+	 * FpmBase16.decodedLength(encryptedData.length()) chars are
+	 * always enough.
+	 * 
+	 * @param encryptedData
+	 * @param dst
+	 * @return number of chars written
+	 * @throws GeneralSecurityException
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 */
+	int decrypt(String encryptedData, CharBuffer dst) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.decryptRaw(), using the session's key.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	byte[] decryptRaw(String encryptedData) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.decryptRaw(byte[], ByteBuffer, ByteBuffer),
+	 * using the session's key.
+	 * 
+	 * @param src
+	 * @param dst
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	int decryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.encrypt(), using the session's key.
+	 * 
+	 * @param plainText
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String encrypt(String plainText) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.encrypt(String, int), using the session's key.
+	 * 
+	 * @param plainText
+	 * @param minLengthBytes
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String encrypt(String plainText, int minLengthBytes) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.encryptRaw(), using the session's key.
+	 * 
+	 * @param clear
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	String encryptRaw(byte[] clear) throws GeneralSecurityException;
+	
+	/**
+	 * Same as FpmCipher.encryptRaw(byte[], ByteBuffer, ByteBuffer),
+	 * using the session's key.
+	 * 
+	 * @param src
+	 * @param dst
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	int encryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException;
+	
+	/**
+	 * Wipe the key, and release any resources.
+	 */
+	void close();
+	
+}
@@ -34,18 +34,38 @@ public class FpmCryptoUtils
 	 * 
 	 * @param s
 	 * @return
+	 * @throws IllegalArgumentException if s is not FPM base16
 	 */
 	public static byte[] decodeString(String s) {
-		byte[] result = new byte[s.length()/2];
+		return FpmBase16.decode(s);
+	}
+	
+	/**
+	 * Base-16 to byte[] conversion using FPM logic, writing
+	 * s.length() / 2 bytes into dst starting at offset.
+	 * 
+	 * @param s
+	 * @param dst
+	 * @param offset
+	 * @return number of bytes written
+	 * @throws IllegalArgumentException if s is not FPM base16
+	 */
+	public static int decodeString(String s, byte[] dst, int offset) {
+		return FpmBase16.decode(s, dst, offset);
+	}
 
-		for (int n = 0; n < s.length() / 2; n++) {
-			byte high = (byte) (s.charAt(n * 2) - 'a');
-			byte low = (byte) (s.charAt(n * 2 + 1) - 'a');
-			result[n] = low;
-			result[n] |= high << 4;
-		}
-		
-		return result;		
+	/**
+	 * Number of bytes FPM encrypts textLength bytes of plain text
+	 * into: textLength / (blockSizeBytes - 1) + 1 blocks, so there
+	 * is always room for the '\0', and a 15 byte field on a 16
+	 * byte block gets two blocks.
+	 * 
+	 * @param textLength
+	 * @param blockSizeBytes
+	 * @return
+	 */
+	public static int fieldLength(int textLength, int blockSizeBytes) {
+		return (textLength / (blockSizeBytes - 1) + 1) * blockSizeBytes;
 	}
 
 	/**
@@ -59,16 +79,78 @@ public class FpmCryptoUtils
 	 */
 	public static byte[] unrotate(byte[] data, int blockSizeBytes) {
 		byte result[] = new byte[data.length];
+		unrotate(data, 0, data.length, blockSizeBytes, result);
+		return result;
+	}
+	
+	/**
+	 * Unrotate length bytes of data, starting at offset,
+	 * into result (which must hold at least length bytes).
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param blockSizeBytes
+	 * @param result
+	 */
+	public static void unrotate(byte[] data, int offset, int length, int blockSizeBytes, byte[] result) {
+		int numBlocks = length / blockSizeBytes;
 		
-		int numBlocks = data.length / blockSizeBytes;
+		for (int block = 0; block < numBlocks; block++) {
+			for (int el = 0; el < blockSizeBytes; el++)	{
+				result[el * numBlocks + block] = data[offset + block * blockSizeBytes + el];
+			}
+		}
+	}
+	
+	/**
+	 * Rotate length bytes of data, starting at offset, into result,
+	 * the reverse of unrotate(). Applied to plain text before
+	 * encryption.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param blockSizeBytes
+	 * @param result
+	 */
+	public static void rotate(byte[] data, int offset, int length, int blockSizeBytes, byte[] result) {
+		int numBlocks = length / blockSizeBytes;
 		
 		for (int block = 0; block < numBlocks; block++) {
 			for (int el = 0; el < blockSizeBytes; el++)	{
-				result[el * numBlocks + block] = data[block * blockSizeBytes + el];
+				result[block * blockSizeBytes + el] = data[offset + el * numBlocks + block];
 			}
 		}
+	}
+	
+	/**
+	 * Unrotate length bytes of data, starting at offset, into result
+	 * only up to the '\0' which terminates FPM's plain text. Output is
+	 * produced in order, so the padding after the '\0' is never copied.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param blockSizeBytes
+	 * @param result
+	 * @return index of '\0' in result, or length if there is none
+	 */
+	public static int unrotateCString(byte[] data, int offset, int length, int blockSizeBytes, byte[] result) {
+		int numBlocks = length / blockSizeBytes;
+		int n = 0;
 		
-		return result;
+		for (int el = 0; el < blockSizeBytes; el++) {
+			for (int src = offset + el, block = 0; block < numBlocks; block++, src += blockSizeBytes) {
+				byte b = data[src];
+				if (b == 0) {
+					return n;
+				}
+				result[n++] = b;
+			}
+		}
+		
+		return n;
 	}
 
 }
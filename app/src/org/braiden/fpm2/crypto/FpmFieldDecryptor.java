@@ -0,0 +1,274 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * Decrypts FPM fields in one pass over reusable buffers: base16 is
+ * decoded into a scratch buffer, decrypted there in place, and
+ * unrotated up to the terminating '\0', and UTF-8 decoded by a
+ * reused CharsetDecoder. The only allocation per field is the
+ * resulting String, or none when decrypting into a CharBuffer.
+ * 
+ * Subclasses provide the block cipher, already keyed. Instances
+ * hold plain text in their buffers, call wipe() when done. Not
+ * thread safe.
+ * 
+ * @author braiden
+ *
+ */
+
+public abstract class FpmFieldDecryptor {
+
+	// upper bound of one decryptBlocks() call in decrypt(String[]),
+	// fields are never split between calls.
+	public static final int MAX_BATCH_BYTES = 64 * 1024;
+	
+	private static final int INITIAL_BUFFER_BYTES = 256;
+	
+	private final int blockSize;
+	private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+	private byte[] plainText = new byte[INITIAL_BUFFER_BYTES];
+	private char[] chars = new char[INITIAL_BUFFER_BYTES];
+	// FPM writes UTF-8, bad input is replaced rather than rejected
+	private final CharsetDecoder utf8 = Charset.forName("UTF-8").newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	
+	protected FpmFieldDecryptor(int blockSize) {
+		this.blockSize = blockSize;
+	}
+	
+	/**
+	 * Decrypt length bytes of data, starting at offset, in place.
+	 * length is always a multiple of the block size.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @throws GeneralSecurityException
+	 */
+	protected abstract void decryptBlocks(byte[] data, int offset, int length) throws GeneralSecurityException;
+	
+	/**
+	 * Decrypt an FPM encoded field to a java String.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String decrypt(CharSequence encryptedData) throws GeneralSecurityException {
+		int length = decodeBlocks(encryptedData);
+		int end = FpmCryptoUtils.unrotateCString(buffer, 0, length, blockSize, plainText);
+		return toString(plainText, end);
+	}
+	
+	/**
+	 * Decrypt an FPM encoded field into dst, starting at its position,
+	 * which is advanced past the plain text. No String is created, so
+	 * the caller can wipe dst when done. FpmBase16.decodedLength() of
+	 * the encrypted length is always enough room.
+	 * 
+	 * @param encryptedData
+	 * @param dst
+	 * @return number of chars written
+	 * @throws GeneralSecurityException
+	 * @throws BufferOverflowException if dst is too small, its position is unchanged
+	 */
+	public int decrypt(CharSequence encryptedData, CharBuffer dst) throws GeneralSecurityException {
+		int length = decodeBlocks(encryptedData);
+		int end = FpmCryptoUtils.unrotateCString(buffer, 0, length, blockSize, plainText);
+		return decodeUtf8(plainText, end, dst);
+	}
+	
+	/**
+	 * Decrypt an FPM encoded field, returning all (unrotated)
+	 * bytes, including '\0' and padding.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] decryptRaw(CharSequence encryptedData) throws GeneralSecurityException {
+		int length = decodeBlocks(encryptedData);
+		byte[] result = new byte[length];
+		FpmCryptoUtils.unrotate(buffer, 0, length, blockSize, result);
+		return result;
+	}
+	
+	/**
+	 * Same as decryptRaw(CharSequence), for a field held in src's
+	 * remaining bytes as ASCII, e.g. read from an FPM file into a
+	 * (direct) ByteBuffer. Data passes through this decryptor's
+	 * buffers, nothing is allocated.
+	 * 
+	 * @param src
+	 * @param dst
+	 * @return number of bytes written
+	 * @throws GeneralSecurityException
+	 * @throws BufferOverflowException if dst is too small, neither buffer is changed
+	 */
+	public int decryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		int length = FpmBase16.decodedLength(src.remaining());
+		if (length % blockSize != 0) {
+			throw new IllegalBlockSizeException("Data is not a multiple of the block size.");
+		}
+		if (dst.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		buffer = ensureCapacity(buffer, length);
+		FpmBase16.decode(src, buffer, 0);
+		decryptBlocks(buffer, 0, length);
+		FpmCryptoUtils.unrotate(buffer, 0, length, blockSize, plainText);
+		dst.put(plainText, 0, length);
+		return length;
+	}
+	
+	/**
+	 * Decrypt many fields. As many fields as fit in MAX_BATCH_BYTES
+	 * are decoded into the buffer and decrypted with one
+	 * decryptBlocks() call (ECB blocks are independent), then
+	 * unrotated and split per field.
+	 * 
+	 * @param encryptedData
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String[] decrypt(CharSequence[] encryptedData) throws GeneralSecurityException {
+		String[] result = new String[encryptedData.length];
+		
+		for (int n = 0; n < encryptedData.length; n++) {
+			if (FpmBase16.decodedLength(encryptedData[n].length()) % blockSize != 0) {
+				// would misalign every field after it in the batch
+				throw new IllegalBlockSizeException("Field " + n + " is not a multiple of the block size.");
+			}
+		}
+		
+		int start = 0;
+		while (start < encryptedData.length) {
+			int end = start;
+			int length = 0;
+			do {
+				length += encryptedData[end].length() / 2;
+				end++;
+			} while (end < encryptedData.length && length + encryptedData[end].length() / 2 <= MAX_BATCH_BYTES);
+			
+			buffer = ensureCapacity(buffer, length);
+			int offset = 0;
+			for (int n = start; n < end; n++) {
+				offset += FpmBase16.decode(encryptedData[n], buffer, offset);
+			}
+			
+			decryptBlocks(buffer, 0, length);
+			
+			offset = 0;
+			for (int n = start; n < end; n++) {
+				int fieldLength = encryptedData[n].length() / 2;
+				int fieldEnd = FpmCryptoUtils.unrotateCString(buffer, offset, fieldLength, blockSize, plainText);
+				result[n] = toString(plainText, fieldEnd);
+				offset += fieldLength;
+			}
+			start = end;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Clear any plain text left in the buffers.
+	 */
+	public void wipe() {
+		Arrays.fill(buffer, (byte)0);
+		Arrays.fill(plainText, (byte)0);
+		Arrays.fill(chars, '\0');
+	}
+	
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	/**
+	 * Decode and decrypt one field at the start of
+	 * the buffer, returning its length in bytes.
+	 */
+	private int decodeBlocks(CharSequence encryptedData) throws GeneralSecurityException {
+		int length = FpmBase16.decodedLength(encryptedData.length());
+		if (length % blockSize != 0) {
+			throw new IllegalBlockSizeException("Data is not a multiple of the block size.");
+		}
+		buffer = ensureCapacity(buffer, length);
+		FpmBase16.decode(encryptedData, buffer, 0);
+		decryptBlocks(buffer, 0, length);
+		return length;
+	}
+	
+	/**
+	 * Grow buffer (and plainText, chars to match), wiping the old one.
+	 */
+	private byte[] ensureCapacity(byte[] current, int length) {
+		if (current.length >= length) {
+			return current;
+		}
+		int capacity = Math.max(length, current.length * 2);
+		wipe();
+		plainText = new byte[capacity];
+		// one UTF-8 byte decodes to at most one char
+		chars = new char[capacity];
+		return new byte[capacity];
+	}
+	
+	private String toString(byte[] bytes, int length) {
+		int count = decodeUtf8(bytes, length, CharBuffer.wrap(chars));
+		return new String(chars, 0, count);
+	}
+	
+	private int decodeUtf8(byte[] bytes, int length, CharBuffer dst) {
+		int start = dst.position();
+		utf8.reset();
+		CoderResult result = utf8.decode(ByteBuffer.wrap(bytes, 0, length), dst, true);
+		if (!result.isOverflow()) {
+			result = utf8.flush(dst);
+		}
+		if (result.isOverflow()) {
+			dst.position(start);
+			throw new BufferOverflowException();
+		}
+		return dst.position() - start;
+	}
+	
+}
@@ -0,0 +1,207 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * Encrypts FPM fields, the reverse of FpmFieldDecryptor: plain text
+ * is UTF-8 encoded, '\0' terminated, padded with random bytes to a
+ * whole number of blocks, rotated, encrypted in place and base16
+ * encoded. Buffers are reused, the only allocation per field is the
+ * resulting String.
+ * 
+ * Subclasses provide the block cipher, already keyed. Instances
+ * hold plain text in their buffers, call wipe() when done. Not
+ * thread safe.
+ * 
+ * @author braiden
+ *
+ */
+
+public abstract class FpmFieldEncryptor {
+
+	private static final int INITIAL_BUFFER_BYTES = 256;
+	// UTF-8 needs at most 3 bytes per java char (4 per surrogate pair)
+	private static final int MAX_BYTES_PER_CHAR = 3;
+	
+	private final int blockSize;
+	private final FpmRandomPool random;
+	private byte[] plainText = new byte[INITIAL_BUFFER_BYTES];
+	private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+	private char[] chars = new char[2 * INITIAL_BUFFER_BYTES];
+	private final CharsetEncoder utf8 = Charset.forName("UTF-8").newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	
+	protected FpmFieldEncryptor(int blockSize, FpmRandomPool random) {
+		this.blockSize = blockSize;
+		this.random = random;
+	}
+	
+	/**
+	 * Encrypt length bytes of data, starting at offset, in place.
+	 * length is always a multiple of the block size.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @throws GeneralSecurityException
+	 */
+	protected abstract void encryptBlocks(byte[] data, int offset, int length) throws GeneralSecurityException;
+	
+	/**
+	 * Encrypt plain text, padded as FPM pads it, see
+	 * FpmCryptoUtils.fieldLength().
+	 * 
+	 * @param plainText
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String encrypt(CharSequence plainText) throws GeneralSecurityException {
+		return encrypt(plainText, 0);
+	}
+	
+	/**
+	 * Encrypt plain text, padded to at least minLengthBytes. FPM
+	 * pads every password to the same length, so the encrypted
+	 * data doesn't reveal how long they are.
+	 * 
+	 * @param plainText
+	 * @param minLengthBytes
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String encrypt(CharSequence plainText, int minLengthBytes) throws GeneralSecurityException {
+		int capacity = Math.max(FpmCryptoUtils.fieldLength(plainText.length() * MAX_BYTES_PER_CHAR, blockSize), minLengthBytes);
+		ensureCapacity(capacity + blockSize);
+		int textLength = encodeUtf8(plainText);
+		int length = Math.max(FpmCryptoUtils.fieldLength(textLength, blockSize), minLengthBytes);
+		length = (length + blockSize - 1) / blockSize * blockSize;
+		this.plainText[textLength] = 0;
+		random.nextBytes(this.plainText, textLength + 1, length - textLength - 1);
+		return encryptAndEncode(length);
+	}
+	
+	/**
+	 * Rotate, encrypt and encode clear as is, the reverse
+	 * of FpmFieldDecryptor.decryptRaw().
+	 * 
+	 * @param clear
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public String encryptRaw(byte[] clear) throws GeneralSecurityException {
+		if (clear.length % blockSize != 0) {
+			throw new IllegalBlockSizeException("Data is not a multiple of the block size.");
+		}
+		ensureCapacity(clear.length);
+		System.arraycopy(clear, 0, plainText, 0, clear.length);
+		return encryptAndEncode(clear.length);
+	}
+	
+	/**
+	 * Same as encryptRaw(byte[]), for the remaining bytes of src.
+	 * The FPM encoded result is put into dst as ASCII. Data passes
+	 * through this encryptor's buffers, nothing is allocated.
+	 * 
+	 * @param src
+	 * @param dst
+	 * @return number of bytes written
+	 * @throws GeneralSecurityException
+	 * @throws BufferOverflowException if dst is too small, neither buffer is changed
+	 */
+	public int encryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		int length = src.remaining();
+		if (length % blockSize != 0) {
+			throw new IllegalBlockSizeException("Data is not a multiple of the block size.");
+		}
+		if (dst.remaining() < 2 * length) {
+			throw new BufferOverflowException();
+		}
+		ensureCapacity(length);
+		src.get(plainText, 0, length);
+		rotateAndEncrypt(length);
+		return FpmBase16.encode(buffer, 0, length, dst);
+	}
+	
+	/**
+	 * Clear any plain text left in the buffers.
+	 */
+	public void wipe() {
+		Arrays.fill(plainText, (byte)0);
+		Arrays.fill(buffer, (byte)0);
+	}
+	
+	public int getBlockSize() {
+		return blockSize;
+	}
+	
+	private String encryptAndEncode(int length) throws GeneralSecurityException {
+		rotateAndEncrypt(length);
+		FpmBase16.encode(buffer, 0, length, chars, 0);
+		return new String(chars, 0, 2 * length);
+	}
+	
+	private void rotateAndEncrypt(int length) throws GeneralSecurityException {
+		FpmCryptoUtils.rotate(plainText, 0, length, blockSize, buffer);
+		encryptBlocks(buffer, 0, length);
+	}
+	
+	private int encodeUtf8(CharSequence text) {
+		ByteBuffer dst = ByteBuffer.wrap(plainText);
+		utf8.reset();
+		// buffer was sized for the worst case, can't overflow
+		utf8.encode(CharBuffer.wrap(text), dst, true);
+		utf8.flush(dst);
+		return dst.position();
+	}
+	
+	/**
+	 * Grow the buffers, wiping the old ones.
+	 */
+	private void ensureCapacity(int length) {
+		if (plainText.length >= length) {
+			return;
+		}
+		int capacity = Math.max(length, plainText.length * 2);
+		wipe();
+		plainText = new byte[capacity];
+		buffer = new byte[capacity];
+		chars = new char[2 * capacity];
+	}
+	
+}
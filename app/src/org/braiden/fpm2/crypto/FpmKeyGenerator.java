@@ -2,6 +2,8 @@ package org.braiden.fpm2.crypto;
 
 import java.security.GeneralSecurityException;
 
+import org.braiden.fpm2.util.ProgressMonitor;
+
 /*
  * Copyright (c) 2010 Braiden Kindt
  *
@@ -39,5 +41,18 @@ public interface FpmKeyGenerator {
 	 * @throws Exception
 	 */
 	byte[] generateKey(String secret, String salt) throws GeneralSecurityException;
+	
+	/**
+	 * Given a passphrase and salt, generated a key. Progress is
+	 * reported to monitor, and OperationCanceledException is thrown
+	 * if monitor is canceled before the key is complete.
+	 * 
+	 * @param secret
+	 * @param salt
+	 * @param monitor
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	byte[] generateKey(String secret, String salt, ProgressMonitor monitor) throws GeneralSecurityException;
 
 }
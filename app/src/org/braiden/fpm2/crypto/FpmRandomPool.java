@@ -0,0 +1,96 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Random bytes for FPM's field padding, drawn from a SecureRandom in
+ * large chunks. Encrypting every field of a file needs a few random
+ * bytes each, one SecureRandom call per field is comparatively slow.
+ * Bytes are zeroed in the pool once handed out. Thread safe.
+ * 
+ * @author braiden
+ *
+ */
+
+public class FpmRandomPool {
+
+	public static final int DEFAULT_POOL_BYTES = 4096;
+	
+	private final SecureRandom random;
+	private final byte[] pool;
+	private int position;
+	
+	public FpmRandomPool() {
+		this(new SecureRandom(), DEFAULT_POOL_BYTES);
+	}
+	
+	public FpmRandomPool(SecureRandom random, int poolBytes) {
+		this.random = random;
+		this.pool = new byte[poolBytes];
+		this.position = poolBytes;
+	}
+	
+	/**
+	 * Shared pool used by FpmFieldEncryptors by default.
+	 * 
+	 * @return
+	 */
+	public static FpmRandomPool getDefault() {
+		return DefaultHolder.INSTANCE;
+	}
+	
+	/**
+	 * Fill length bytes of dst, starting at offset.
+	 * 
+	 * @param dst
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void nextBytes(byte[] dst, int offset, int length) {
+		while (length > 0) {
+			if (position == pool.length) {
+				random.nextBytes(pool);
+				position = 0;
+			}
+			int count = Math.min(length, pool.length - position);
+			System.arraycopy(pool, position, dst, offset, count);
+			Arrays.fill(pool, position, position + count, (byte)0);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	// created on first use, SecureRandom can be slow to seed
+	private static class DefaultHolder {
+		private static final FpmRandomPool INSTANCE = new FpmRandomPool();
+	}
+	
+}
@@ -0,0 +1,266 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import org.braiden.fpm2.util.ProgressMonitor;
+
+/**
+ * PBKDF2-HMAC-SHA256 implemented directly on SHA-256 state words.
+ * 
+ * The ipad/opad compression states are computed once per key. Every
+ * iteration after the first is then exactly two compressions of a
+ * single fixed 64 byte block, working on int[] buffers allocated
+ * once per call to generateKey(). Produces the same keys as
+ * PBKDF2KeyGenerator with "HMACSHA256". Whether this beats the JCE
+ * Mac depends on the runtime, so it is one of the candidates timed
+ * by CryptoProviderSelector, under PROVIDER_NAME.
+ * 
+ * @author braiden
+ *
+ */
+
+public class HmacSha256PBKDF2KeyGenerator extends PBKDF2KeyGenerator {
+
+	public static final String HMAC_ALGORITHM = "HMACSHA256";
+	// name CryptoProviderSelector uses for this implementation,
+	// alongside the names of the installed JCE providers
+	public static final String PROVIDER_NAME = "FpmHmacSha256";
+	
+	private static final int BLOCK_LENGTH_BYTES = 64;
+	private static final int DIGEST_LENGTH_BYTES = 32;
+	
+	private static final int[] IV = {
+		0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+		0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+	};
+	
+	private static final int[] K = {
+		0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+		0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+		0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+		0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+		0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+		0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+		0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+		0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+	};
+	
+	public HmacSha256PBKDF2KeyGenerator(int keyLengthBytes, int iterations) throws GeneralSecurityException {
+		super(keyLengthBytes, iterations, HMAC_ALGORITHM);
+	}
+	
+	@Override
+	public byte[] generateKey(String secret, byte[] salt, ProgressMonitor monitor) throws GeneralSecurityException {
+		int keyLengthBytes = getKeyLengthBytes();
+		int iterations = getIterations();
+		byte[] result = new byte[keyLengthBytes];
+		byte[] keyBlock = new byte[BLOCK_LENGTH_BYTES];
+		byte[] keyBytes = secret.getBytes();
+		int[] w = new int[64];
+		int[] innerState = new int[8];
+		int[] outerState = new int[8];
+		int[] state = new int[8];
+		int[] u = new int[8];
+		int[] intermediateResult = new int[8];
+		
+		// keys longer than the block are hashed first (RFC 2104)
+		if (keyBytes.length > BLOCK_LENGTH_BYTES) {
+			System.arraycopy(IV, 0, state, 0, 8);
+			hashTail(state, keyBytes, 0, w);
+			Arrays.fill(keyBytes, (byte)0);
+			keyBytes = new byte[DIGEST_LENGTH_BYTES];
+			wordsToBytes(state, keyBytes, 0, 8);
+		}
+		
+		padState(keyBytes, keyBlock, (byte)0x36, innerState, w);
+		padState(keyBytes, keyBlock, (byte)0x5c, outerState, w);
+		Arrays.fill(keyBytes, (byte)0);
+		Arrays.fill(keyBlock, (byte)0);
+		
+		byte[] initialHashInput = new byte[salt.length + 4];
+		System.arraycopy(salt, 0, initialHashInput, 0, salt.length);
+		
+		for (int count = 1, bytesRemaining = keyLengthBytes; bytesRemaining > 0; count++) {
+			
+			initialHashInput[salt.length + 0] = (byte)(count >>> 24);
+			initialHashInput[salt.length + 1] = (byte)(count >>> 16);
+			initialHashInput[salt.length + 2] = (byte)(count >>> 8);
+			initialHashInput[salt.length + 3] = (byte)(count);
+			
+			// U1 = HMAC(salt || INT(count)), arbitrary length message
+			System.arraycopy(innerState, 0, state, 0, 8);
+			hashTail(state, initialHashInput, BLOCK_LENGTH_BYTES, w);
+			System.arraycopy(state, 0, u, 0, 8);
+			System.arraycopy(outerState, 0, state, 0, 8);
+			compressDigestBlock(state, u, w);
+			System.arraycopy(state, 0, u, 0, 8);
+			System.arraycopy(u, 0, intermediateResult, 0, 8);
+			
+			// Un = HMAC(Un-1), always one 32 byte message in a single block
+			for (int iter = 1; iter < iterations; iter++) {
+				System.arraycopy(innerState, 0, state, 0, 8);
+				compressDigestBlock(state, u, w);
+				System.arraycopy(state, 0, u, 0, 8);
+				System.arraycopy(outerState, 0, state, 0, 8);
+				compressDigestBlock(state, u, w);
+				for (int n = 0; n < 8; n++) {
+					u[n] = state[n];
+					intermediateResult[n] ^= state[n];
+				}
+				if (iter % PROGRESS_INTERVAL == 0) {
+					reportProgress(monitor, count, iter, DIGEST_LENGTH_BYTES);
+				}
+			}
+			reportProgress(monitor, count, iterations, DIGEST_LENGTH_BYTES);
+			
+			int len = DIGEST_LENGTH_BYTES < bytesRemaining ? DIGEST_LENGTH_BYTES : bytesRemaining;
+			int offset = keyLengthBytes - bytesRemaining;
+			byte[] block = new byte[DIGEST_LENGTH_BYTES];
+			wordsToBytes(intermediateResult, block, 0, 8);
+			System.arraycopy(block, 0, result, offset, len);
+			Arrays.fill(block, (byte)0);
+			bytesRemaining -= DIGEST_LENGTH_BYTES;
+			
+		}
+		
+		// futile(?) attempt to clean up memory
+		Arrays.fill(w, 0);
+		Arrays.fill(innerState, 0);
+		Arrays.fill(outerState, 0);
+		Arrays.fill(state, 0);
+		Arrays.fill(u, 0);
+		Arrays.fill(intermediateResult, 0);
+		Arrays.fill(initialHashInput, (byte)0);
+		
+		return result;
+	}
+	
+	/**
+	 * Compute the state after compressing (key ^ pad) from the IV.
+	 */
+	private static void padState(byte[] keyBytes, byte[] keyBlock, byte pad, int[] state, int[] w) {
+		Arrays.fill(keyBlock, pad);
+		for (int n = 0; n < keyBytes.length; n++) {
+			keyBlock[n] ^= keyBytes[n];
+		}
+		System.arraycopy(IV, 0, state, 0, 8);
+		for (int n = 0; n < 16; n++) {
+			w[n] = ((keyBlock[n * 4] & 0xff) << 24) | ((keyBlock[n * 4 + 1] & 0xff) << 16)
+					| ((keyBlock[n * 4 + 2] & 0xff) << 8) | (keyBlock[n * 4 + 3] & 0xff);
+		}
+		compress(state, w);
+	}
+	
+	/**
+	 * Finish a SHA-256 hash of data, given state after prefixLength
+	 * bytes (a multiple of the block size) were already compressed.
+	 */
+	private static void hashTail(int[] state, byte[] data, int prefixLength, int[] w) {
+		long bitLength = ((long) prefixLength + data.length) * 8;
+		int paddedLength = ((data.length + 8) / BLOCK_LENGTH_BYTES + 1) * BLOCK_LENGTH_BYTES;
+		
+		for (int block = 0; block < paddedLength; block += BLOCK_LENGTH_BYTES) {
+			for (int n = 0; n < 16; n++) {
+				int word = 0;
+				for (int b = 0; b < 4; b++) {
+					int idx = block + n * 4 + b;
+					int value;
+					if (idx < data.length) {
+						value = data[idx] & 0xff;
+					} else if (idx == data.length) {
+						value = 0x80;
+					} else if (idx >= paddedLength - 8) {
+						value = (int) (bitLength >>> ((paddedLength - 1 - idx) * 8)) & 0xff;
+					} else {
+						value = 0;
+					}
+					word = (word << 8) | value;
+				}
+				w[n] = word;
+			}
+			compress(state, w);
+		}
+	}
+	
+	/**
+	 * Compress a single block whose message is the 8 word (32 byte)
+	 * digest, following a 64 byte pad block: data, 0x80, then the
+	 * 96 byte (768 bit) total length.
+	 */
+	private static void compressDigestBlock(int[] state, int[] digest, int[] w) {
+		w[0] = digest[0]; w[1] = digest[1]; w[2] = digest[2]; w[3] = digest[3];
+		w[4] = digest[4]; w[5] = digest[5]; w[6] = digest[6]; w[7] = digest[7];
+		w[8] = 0x80000000;
+		w[9] = 0; w[10] = 0; w[11] = 0; w[12] = 0; w[13] = 0; w[14] = 0;
+		w[15] = (BLOCK_LENGTH_BYTES + DIGEST_LENGTH_BYTES) * 8;
+		compress(state, w);
+	}
+	
+	/**
+	 * SHA-256 compression function. w[0..15] holds the message block,
+	 * w[16..63] is used as the message schedule.
+	 */
+	private static void compress(int[] state, int[] w) {
+		for (int t = 16; t < 64; t++) {
+			int w2 = w[t - 2];
+			int w15 = w[t - 15];
+			int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+			int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+			w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+		}
+		
+		int a = state[0], b = state[1], c = state[2], d = state[3];
+		int e = state[4], f = state[5], g = state[6], h = state[7];
+		
+		for (int t = 0; t < 64; t++) {
+			int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+			int ch = (e & f) ^ (~e & g);
+			int t1 = h + s1 + ch + K[t] + w[t];
+			int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+			int maj = (a & b) ^ (a & c) ^ (b & c);
+			int t2 = s0 + maj;
+			h = g; g = f; f = e; e = d + t1;
+			d = c; c = b; b = a; a = t1 + t2;
+		}
+		
+		state[0] += a; state[1] += b; state[2] += c; state[3] += d;
+		state[4] += e; state[5] += f; state[6] += g; state[7] += h;
+	}
+	
+	private static void wordsToBytes(int[] words, byte[] dest, int offset, int count) {
+		for (int n = 0; n < count; n++) {
+			dest[offset + n * 4] = (byte)(words[n] >>> 24);
+			dest[offset + n * 4 + 1] = (byte)(words[n] >>> 16);
+			dest[offset + n * 4 + 2] = (byte)(words[n] >>> 8);
+			dest[offset + n * 4 + 3] = (byte)(words[n]);
+		}
+	}
+	
+}
@@ -26,14 +26,13 @@ package org.braiden.fpm2.crypto;
  *
  */
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
-import org.apache.commons.lang.ArrayUtils;
-
 /**
  * Java Crypto Extensions implementation of FpmCipher.
  * Default constructor creates AES implementation, but
@@ -49,38 +48,136 @@ public class JCEFpmCipher implements FpmCipher {
 	public final static String DEFAULT_CIPHER = "AES/ECB/NoPadding";
 
 	private Cipher cipher;
+	private String provider;
+	private String keyAlgorithm;
 	
 	public JCEFpmCipher() throws GeneralSecurityException {
 		this(DEFAULT_CIPHER);
 	}
 	
 	public JCEFpmCipher(String cipherName) throws GeneralSecurityException {
-		this.cipher = Cipher.getInstance(cipherName);
+		this(cipherName, null);
+	}
+	
+	/**
+	 * Create cipher from the named JCE provider,
+	 * or the default provider if null.
+	 * 
+	 * @param cipherName
+	 * @param provider
+	 * @throws GeneralSecurityException
+	 */
+	public JCEFpmCipher(String cipherName, String provider) throws GeneralSecurityException {
+		this.cipher = createCipher(cipherName, provider);
+		this.provider = provider;
+		this.keyAlgorithm = getKeyAlgorithm(cipherName);
+	}
+	
+	/**
+	 * Create a session which initializes ciphers with key once, and
+	 * reuses them for every field. Unlike this class, the session
+	 * is thread safe without locking.
+	 */
+	@Override
+	public FpmCipherSession createSession(byte[] key) throws GeneralSecurityException {
+		return new JCEFpmCipherSession(cipher.getAlgorithm(), provider, new SecretKeySpec(key, keyAlgorithm));
 	}
 	
+	/**
+	 * Synchronized, the one Cipher is re-keyed on every call.
+	 * Prefer createSession() for more than one value.
+	 */
 	@Override
-	public byte[] decryptRaw(byte[] key, String encryptedData) throws GeneralSecurityException {
-		SecretKey cipherKey = new SecretKeySpec(key, cipher.getAlgorithm());
+	public synchronized byte[] decryptRaw(byte[] key, String encryptedData) throws GeneralSecurityException {
+		SecretKey cipherKey = new SecretKeySpec(key, keyAlgorithm);
 		cipher.init(Cipher.DECRYPT_MODE, cipherKey);
 		byte[] result = cipher.doFinal(FpmCryptoUtils.decodeString(encryptedData));
 		return FpmCryptoUtils.unrotate(result, cipher.getBlockSize());
 	}
 
+	/**
+	 * Decrypted with a session, which UTF-8 decodes the plain
+	 * text and wipes its buffers.
+	 */
 	@Override
 	public String decrypt(byte[] key, String encryptedData) throws GeneralSecurityException {
-		byte[] result = decryptRaw(key, encryptedData);
-		int idxOfNil = ArrayUtils.indexOf(result, (byte)0);
-		return new String(result, 0, idxOfNil >= 0 ? idxOfNil : result.length);
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.decrypt(encryptedData);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public int decryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.decryptRaw(src, dst);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public int encryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encryptRaw(src, dst);
+		} finally {
+			session.close();
+		}
+	}
+	
+	@Override
+	public String[] decrypt(byte[] key, String[] encryptedData) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.decrypt(encryptedData);
+		} finally {
+			session.close();
+		}
 	}
 
 	@Override
 	public String encrypt(byte[] key, String plainText) throws GeneralSecurityException {
-		throw new UnsupportedOperationException();
+		return encrypt(key, plainText, 0);
+	}
+
+	@Override
+	public String encrypt(byte[] key, String plainText, int minLengthBytes) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encrypt(plainText, minLengthBytes);
+		} finally {
+			session.close();
+		}
 	}
 
 	@Override
 	public String encryptRaw(byte[] key, byte[] clear) throws GeneralSecurityException {
-		throw new UnsupportedOperationException();
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encryptRaw(clear);
+		} finally {
+			session.close();
+		}
+	}
+	
+	static Cipher createCipher(String cipherName, String provider) throws GeneralSecurityException {
+		return provider == null ? Cipher.getInstance(cipherName) : Cipher.getInstance(cipherName, provider);
+	}
+	
+	/**
+	 * The SecretKeySpec algorithm for a transformation,
+	 * e.g. "AES" for "AES/ECB/NoPadding".
+	 * 
+	 * @param cipherName
+	 * @return
+	 */
+	protected static String getKeyAlgorithm(String cipherName) {
+		int index = cipherName.indexOf('/');
+		return index < 0 ? cipherName : cipherName.substring(0, index);
 	}
 
 	
@@ -0,0 +1,72 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * FpmCipherSession for JCEFpmCipher. Each pooled decryptor has its
+ * own Cipher, initialized (AES key expansion) once from the session's
+ * key. JCE has no way to share the expanded key between Ciphers,
+ * or to wipe the copies of the key they hold.
+ * 
+ * @author braiden
+ *
+ */
+
+public class JCEFpmCipherSession extends PooledFpmCipherSession {
+
+	private final String cipherName;
+	private final String provider;
+	private final SecretKeySpec key;
+	
+	protected JCEFpmCipherSession(String cipherName, String provider, SecretKeySpec key) throws GeneralSecurityException {
+		this.cipherName = cipherName;
+		this.provider = provider;
+		this.key = key;
+		// fail now, rather than on first decrypt, if key is bad
+		releaseDecryptor(createDecryptor());
+	}
+	
+	@Override
+	protected FpmFieldDecryptor createDecryptor() throws GeneralSecurityException {
+		Cipher cipher = JCEFpmCipher.createCipher(cipherName, provider);
+		cipher.init(Cipher.DECRYPT_MODE, key);
+		return new JCEFpmFieldDecryptor(cipher);
+	}
+	
+	@Override
+	protected FpmFieldEncryptor createEncryptor() throws GeneralSecurityException {
+		Cipher cipher = JCEFpmCipher.createCipher(cipherName, provider);
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		return new JCEFpmFieldEncryptor(cipher, FpmRandomPool.getDefault());
+	}
+	
+}
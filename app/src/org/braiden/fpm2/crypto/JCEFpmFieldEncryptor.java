@@ -0,0 +1,58 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * FpmFieldEncryptor using a JCE Cipher, initialized
+ * for encryption by the caller.
+ * 
+ * @author braiden
+ *
+ */
+
+public class JCEFpmFieldEncryptor extends FpmFieldEncryptor {
+
+	private final Cipher cipher;
+	
+	public JCEFpmFieldEncryptor(Cipher cipher, FpmRandomPool random) {
+		super(cipher.getBlockSize(), random);
+		this.cipher = cipher;
+	}
+	
+	@Override
+	protected void encryptBlocks(byte[] data, int offset, int length) throws GeneralSecurityException {
+		if (cipher.doFinal(data, offset, length, data, offset) != length) {
+			throw new ShortBufferException("Cipher output length does not match input.");
+		}
+	}
+	
+}
@@ -0,0 +1,121 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * FpmCipherSession for ciphers without per-key state. Keeps
+ * a copy of the key and passes it to the FpmCipher on each call.
+ * 
+ * @author braiden
+ *
+ */
+
+public class KeyedFpmCipherSession implements FpmCipherSession {
+
+	private final FpmCipher cipher;
+	private byte[] key;
+	
+	public KeyedFpmCipherSession(FpmCipher cipher, byte[] key) {
+		this.cipher = cipher;
+		this.key = key.clone();
+	}
+	
+	@Override
+	public String decrypt(String encryptedData) throws GeneralSecurityException {
+		return cipher.decrypt(getKey(), encryptedData);
+	}
+
+	@Override
+	public String[] decrypt(String[] encryptedData) throws GeneralSecurityException {
+		return cipher.decrypt(getKey(), encryptedData);
+	}
+
+	/**
+	 * Goes through FpmCipher.decrypt(), so does create a String.
+	 */
+	@Override
+	public int decrypt(String encryptedData, CharBuffer dst) throws GeneralSecurityException {
+		String plainText = cipher.decrypt(getKey(), encryptedData);
+		if (dst.remaining() < plainText.length()) {
+			throw new BufferOverflowException();
+		}
+		dst.put(plainText);
+		return plainText.length();
+	}
+
+	@Override
+	public byte[] decryptRaw(String encryptedData) throws GeneralSecurityException {
+		return cipher.decryptRaw(getKey(), encryptedData);
+	}
+
+	@Override
+	public int decryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		return cipher.decryptRaw(getKey(), src, dst);
+	}
+
+	@Override
+	public String encrypt(String plainText) throws GeneralSecurityException {
+		return cipher.encrypt(getKey(), plainText);
+	}
+
+	@Override
+	public String encrypt(String plainText, int minLengthBytes) throws GeneralSecurityException {
+		return cipher.encrypt(getKey(), plainText, minLengthBytes);
+	}
+
+	@Override
+	public String encryptRaw(byte[] clear) throws GeneralSecurityException {
+		return cipher.encryptRaw(getKey(), clear);
+	}
+
+	@Override
+	public int encryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		return cipher.encryptRaw(getKey(), src, dst);
+	}
+
+	@Override
+	public void close() {
+		if (key != null) {
+			Arrays.fill(key, (byte)0);
+			key = null;
+		}
+	}
+	
+	private byte[] getKey() {
+		if (key == null) {
+			throw new IllegalStateException("Session is closed.");
+		}
+		return key;
+	}
+	
+}
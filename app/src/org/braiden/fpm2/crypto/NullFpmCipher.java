@@ -1,5 +1,6 @@
 package org.braiden.fpm2.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
 
 public class NullFpmCipher implements FpmCipher {
@@ -10,22 +11,56 @@ public class NullFpmCipher implements FpmCipher {
 		return encryptedData;
 	}
 
+	@Override
+	public String[] decrypt(byte[] key, String[] encryptedData)
+			throws GeneralSecurityException {
+		return encryptedData.clone();
+	}
+
 	@Override
 	public byte[] decryptRaw(byte[] key, String encryptedData)
 			throws GeneralSecurityException {
 		return encryptedData.getBytes();
 	}
 
+	@Override
+	public int decryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst)
+			throws GeneralSecurityException {
+		int length = src.remaining();
+		dst.put(src);
+		return length;
+	}
+
 	@Override
 	public String encrypt(byte[] key, String plainText)
 			throws GeneralSecurityException {
-		throw new UnsupportedOperationException();
+		return plainText;
+	}
+
+	@Override
+	public String encrypt(byte[] key, String plainText, int minLengthBytes)
+			throws GeneralSecurityException {
+		return plainText;
 	}
 
 	@Override
 	public String encryptRaw(byte[] key, byte[] clear)
 			throws GeneralSecurityException {
-		throw new UnsupportedOperationException();
+		return new String(clear);
+	}
+
+	@Override
+	public int encryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst)
+			throws GeneralSecurityException {
+		int length = src.remaining();
+		dst.put(src);
+		return length;
+	}
+
+	@Override
+	public FpmCipherSession createSession(byte[] key)
+			throws GeneralSecurityException {
+		return new KeyedFpmCipherSession(this, key);
 	}
 
 }
@@ -2,6 +2,8 @@ package org.braiden.fpm2.crypto;
 
 import java.security.GeneralSecurityException;
 
+import org.braiden.fpm2.util.ProgressMonitor;
+
 public class NullFpmKeyGenerator implements FpmKeyGenerator {
 
 	@Override
@@ -10,4 +12,11 @@ public class NullFpmKeyGenerator implements FpmKeyGenerator {
 		return secret.getBytes();
 	}
 
+	@Override
+	public byte[] generateKey(String secret, String salt,
+			ProgressMonitor monitor) throws GeneralSecurityException {
+		monitor.checkCanceled();
+		return generateKey(secret, salt);
+	}
+
 }
@@ -29,6 +29,7 @@ package org.braiden.fpm2.crypto;
 import java.security.GeneralSecurityException;
 
 import org.apache.commons.lang.StringUtils;
+import org.braiden.fpm2.util.ProgressMonitor;
 
 /**
  * Generate a key using PBKDF2 and the provided mac.
@@ -49,17 +50,66 @@ public class PBKDF2FpmKeyGenerator implements FpmKeyGenerator {
 	private PBKDF2KeyGenerator keyGenerator;
 	
 	public PBKDF2FpmKeyGenerator() throws GeneralSecurityException {
-		this(DEFAULT_KEY_LENGTH_BYTES, DEFAULT_ITERATIONS, DEFAULT_HMAC_ALGORITH);
+		this(DEFAULT_KEY_LENGTH_BYTES, DEFAULT_ITERATIONS, DEFAULT_HMAC_ALGORITH, true);
+	}
+	
+	/**
+	 * FPM's AES rules, with the Mac taken from the named
+	 * JCE provider (default provider if null), or
+	 * HmacSha256PBKDF2KeyGenerator for its PROVIDER_NAME.
+	 * 
+	 * @param provider
+	 * @throws GeneralSecurityException
+	 */
+	public PBKDF2FpmKeyGenerator(String provider) throws GeneralSecurityException {
+		this(createKeyGenerator(DEFAULT_KEY_LENGTH_BYTES, DEFAULT_ITERATIONS, provider));
 	}
 	
 	public PBKDF2FpmKeyGenerator(int keyLength, int iterations, String hmac) throws GeneralSecurityException {
-		keyGenerator = new PBKDF2KeyGenerator(keyLength, iterations, hmac);
+		this(keyLength, iterations, hmac, false);
+	}
+	
+	public PBKDF2FpmKeyGenerator(int keyLength, int iterations, String hmac, boolean precomputePads) throws GeneralSecurityException {
+		this(new PBKDF2KeyGenerator(keyLength, iterations, hmac, precomputePads));
+	}
+	
+	/**
+	 * Use the given PBKDF2 backend, for example
+	 * HmacSha256PBKDF2KeyGenerator.
+	 * 
+	 * @param keyGenerator
+	 */
+	public PBKDF2FpmKeyGenerator(PBKDF2KeyGenerator keyGenerator) {
+		this.keyGenerator = keyGenerator;
+	}
+
+	/**
+	 * PBKDF2 with DEFAULT_HMAC_ALGORITH from the named provider, as
+	 * chosen by CryptoProviderSelector: a JCE provider (default if
+	 * null), or HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME.
+	 * 
+	 * @param keyLengthBytes
+	 * @param iterations
+	 * @param provider
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public static PBKDF2KeyGenerator createKeyGenerator(int keyLengthBytes, int iterations, String provider) throws GeneralSecurityException {
+		if (HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME.equals(provider)) {
+			return new HmacSha256PBKDF2KeyGenerator(keyLengthBytes, iterations);
+		}
+		return new PBKDF2KeyGenerator(keyLengthBytes, iterations, DEFAULT_HMAC_ALGORITH, true, provider);
 	}
 
 	@Override
 	public byte[] generateKey(String secret, String salt) throws GeneralSecurityException {
+		return generateKey(secret, salt, ProgressMonitor.NULL);
+	}
+	
+	@Override
+	public byte[] generateKey(String secret, String salt, ProgressMonitor monitor) throws GeneralSecurityException {
 		byte[] saltBytes = StringUtils.substring(salt, 0, keyGenerator.getKeyLengthBytes() / 2).getBytes();
-		return keyGenerator.generateKey(secret, saltBytes);
+		return keyGenerator.generateKey(secret, saltBytes, monitor);
 	}
 	
 }
@@ -0,0 +1,221 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * FpmCipherSession decrypting with pooled FpmFieldDecryptors, and
+ * encrypting with pooled FpmFieldEncryptors. A call takes one from
+ * its pool, or creates one if all are in use, and returns it when
+ * done. So the session is thread safe, and
+ * concurrent callers never wait on each other. The pool grows to the
+ * number of threads which have decrypted at the same time.
+ * 
+ * @author braiden
+ *
+ */
+
+public abstract class PooledFpmCipherSession implements FpmCipherSession {
+
+	private final Queue<FpmFieldDecryptor> decryptors = new ConcurrentLinkedQueue<FpmFieldDecryptor>();
+	private final Queue<FpmFieldEncryptor> encryptors = new ConcurrentLinkedQueue<FpmFieldEncryptor>();
+	private volatile boolean isClosed = false;
+	
+	/**
+	 * Create a new decryptor, keyed with the session's key.
+	 * 
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	protected abstract FpmFieldDecryptor createDecryptor() throws GeneralSecurityException;
+	
+	/**
+	 * Create a new encryptor, keyed with the session's key.
+	 * 
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	protected abstract FpmFieldEncryptor createEncryptor() throws GeneralSecurityException;
+	
+	@Override
+	public byte[] decryptRaw(String encryptedData) throws GeneralSecurityException {
+		FpmFieldDecryptor decryptor = acquireDecryptor();
+		try {
+			return decryptor.decryptRaw(encryptedData);
+		} finally {
+			releaseDecryptor(decryptor);
+		}
+	}
+
+	@Override
+	public int decryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmFieldDecryptor decryptor = acquireDecryptor();
+		try {
+			return decryptor.decryptRaw(src, dst);
+		} finally {
+			releaseDecryptor(decryptor);
+		}
+	}
+
+	@Override
+	public String decrypt(String encryptedData) throws GeneralSecurityException {
+		FpmFieldDecryptor decryptor = acquireDecryptor();
+		try {
+			return decryptor.decrypt(encryptedData);
+		} finally {
+			releaseDecryptor(decryptor);
+		}
+	}
+
+	@Override
+	public int decrypt(String encryptedData, CharBuffer dst) throws GeneralSecurityException {
+		FpmFieldDecryptor decryptor = acquireDecryptor();
+		try {
+			return decryptor.decrypt(encryptedData, dst);
+		} finally {
+			releaseDecryptor(decryptor);
+		}
+	}
+
+	@Override
+	public String[] decrypt(String[] encryptedData) throws GeneralSecurityException {
+		FpmFieldDecryptor decryptor = acquireDecryptor();
+		try {
+			return decryptor.decrypt(encryptedData);
+		} finally {
+			releaseDecryptor(decryptor);
+		}
+	}
+	
+	@Override
+	public String encrypt(String plainText) throws GeneralSecurityException {
+		return encrypt(plainText, 0);
+	}
+
+	@Override
+	public String encrypt(String plainText, int minLengthBytes) throws GeneralSecurityException {
+		FpmFieldEncryptor encryptor = acquireEncryptor();
+		try {
+			return encryptor.encrypt(plainText, minLengthBytes);
+		} finally {
+			releaseEncryptor(encryptor);
+		}
+	}
+
+	@Override
+	public String encryptRaw(byte[] clear) throws GeneralSecurityException {
+		FpmFieldEncryptor encryptor = acquireEncryptor();
+		try {
+			return encryptor.encryptRaw(clear);
+		} finally {
+			releaseEncryptor(encryptor);
+		}
+	}
+
+	@Override
+	public int encryptRaw(ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmFieldEncryptor encryptor = acquireEncryptor();
+		try {
+			return encryptor.encryptRaw(src, dst);
+		} finally {
+			releaseEncryptor(encryptor);
+		}
+	}
+
+	/**
+	 * Wipe pooled buffers. Decryptors and encryptors in use are
+	 * wiped when released. Subclasses should also release, or
+	 * wipe, their key.
+	 */
+	@Override
+	public void close() {
+		isClosed = true;
+		FpmFieldDecryptor decryptor;
+		while ((decryptor = decryptors.poll()) != null) {
+			decryptor.wipe();
+		}
+		FpmFieldEncryptor encryptor;
+		while ((encryptor = encryptors.poll()) != null) {
+			encryptor.wipe();
+		}
+	}
+	
+	/**
+	 * Take a decryptor for use by the calling thread only,
+	 * it must be given back with releaseDecryptor().
+	 * 
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public FpmFieldDecryptor acquireDecryptor() throws GeneralSecurityException {
+		if (isClosed) {
+			throw new IllegalStateException("Session is closed.");
+		}
+		FpmFieldDecryptor decryptor = decryptors.poll();
+		return decryptor != null ? decryptor : createDecryptor();
+	}
+	
+	public void releaseDecryptor(FpmFieldDecryptor decryptor) {
+		decryptors.add(decryptor);
+		// close() may have drained the pool before the add
+		if (isClosed && decryptors.remove(decryptor)) {
+			decryptor.wipe();
+		}
+	}
+	
+	/**
+	 * Take an encryptor for use by the calling thread only,
+	 * it must be given back with releaseEncryptor().
+	 * 
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public FpmFieldEncryptor acquireEncryptor() throws GeneralSecurityException {
+		if (isClosed) {
+			throw new IllegalStateException("Session is closed.");
+		}
+		FpmFieldEncryptor encryptor = encryptors.poll();
+		return encryptor != null ? encryptor : createEncryptor();
+	}
+	
+	public void releaseEncryptor(FpmFieldEncryptor encryptor) {
+		encryptors.add(encryptor);
+		if (isClosed && encryptors.remove(encryptor)) {
+			encryptor.wipe();
+		}
+	}
+	
+	public boolean isClosed() {
+		return isClosed;
+	}
+	
+}
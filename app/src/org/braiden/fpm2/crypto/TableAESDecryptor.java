@@ -0,0 +1,230 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+/**
+ * AES decryption in pure java, with the usual precomputed tables
+ * (four 256 entry int tables combining InvSubBytes, InvShiftRows
+ * and InvMixColumns, see "The Design of Rijndael" section 4.2).
+ * Blocks are worked on as four int words, ECB mode only, no padding.
+ * 
+ * The expanded key is computed once and never modified afterwards,
+ * so one instance can be shared by any number of threads.
+ * 
+ * @author braiden
+ *
+ */
+
+public class TableAESDecryptor {
+
+	public static final int BLOCK_SIZE = 16;
+	
+	private static final int[] S = new int[256];
+	private static final int[] SI = new int[256];
+	private static final int[] TD0 = new int[256];
+	private static final int[] TD1 = new int[256];
+	private static final int[] TD2 = new int[256];
+	private static final int[] TD3 = new int[256];
+	
+	static {
+		// exp and log tables of GF(2^8), generator 3
+		int[] exp = new int[256];
+		int[] log = new int[256];
+		int x = 1;
+		for (int n = 0; n < 255; n++) {
+			exp[n] = x;
+			log[x] = n;
+			x ^= xtime(x);
+		}
+		for (int n = 0; n < 256; n++) {
+			int inverse = n == 0 ? 0 : exp[(255 - log[n]) % 255];
+			int s = inverse;
+			for (int m = 1; m <= 4; m++) {
+				s ^= ((inverse << m) | (inverse >>> (8 - m))) & 0xff;
+			}
+			s ^= 0x63;
+			S[n] = s;
+			SI[s] = n;
+		}
+		for (int n = 0; n < 256; n++) {
+			int si = SI[n];
+			int word = (mul(si, 0x0e) << 24) | (mul(si, 0x09) << 16) | (mul(si, 0x0d) << 8) | mul(si, 0x0b);
+			TD0[n] = word;
+			TD1[n] = (word >>> 8) | (word << 24);
+			TD2[n] = (word >>> 16) | (word << 16);
+			TD3[n] = (word >>> 24) | (word << 8);
+		}
+	}
+	
+	private final int rounds;
+	private final int[] roundKeys;
+	
+	/**
+	 * @param key a 16, 24 or 32 byte AES key
+	 * @throws InvalidKeyException
+	 */
+	public TableAESDecryptor(byte[] key) throws InvalidKeyException {
+		if (key == null || (key.length != 16 && key.length != 24 && key.length != 32)) {
+			throw new InvalidKeyException("AES key must be 16, 24 or 32 bytes.");
+		}
+		int keyWords = key.length / 4;
+		rounds = keyWords + 6;
+		int[] encryptKeys = expandKey(key, keyWords, rounds);
+		roundKeys = invertKey(encryptKeys, rounds);
+		Arrays.fill(encryptKeys, 0);
+	}
+	
+	/**
+	 * Decrypt length bytes of data, starting at offset, in place.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length a multiple of BLOCK_SIZE
+	 */
+	public void decryptBlocks(byte[] data, int offset, int length) {
+		if (length % BLOCK_SIZE != 0) {
+			throw new IllegalArgumentException("Data is not a multiple of the block size.");
+		}
+		for (int end = offset + length; offset < end; offset += BLOCK_SIZE) {
+			decryptBlock(data, offset);
+		}
+	}
+	
+	/**
+	 * Zero the expanded key. The instance must not be used afterwards.
+	 */
+	public void destroy() {
+		Arrays.fill(roundKeys, 0);
+	}
+	
+	private void decryptBlock(byte[] data, int offset) {
+		final int[] rk = roundKeys;
+		int s0 = getInt(data, offset) ^ rk[0];
+		int s1 = getInt(data, offset + 4) ^ rk[1];
+		int s2 = getInt(data, offset + 8) ^ rk[2];
+		int s3 = getInt(data, offset + 12) ^ rk[3];
+		
+		int k = 4;
+		for (int round = 1; round < rounds; round++, k += 4) {
+			int t0 = TD0[s0 >>> 24] ^ TD1[(s3 >>> 16) & 0xff] ^ TD2[(s2 >>> 8) & 0xff] ^ TD3[s1 & 0xff] ^ rk[k];
+			int t1 = TD0[s1 >>> 24] ^ TD1[(s0 >>> 16) & 0xff] ^ TD2[(s3 >>> 8) & 0xff] ^ TD3[s2 & 0xff] ^ rk[k + 1];
+			int t2 = TD0[s2 >>> 24] ^ TD1[(s1 >>> 16) & 0xff] ^ TD2[(s0 >>> 8) & 0xff] ^ TD3[s3 & 0xff] ^ rk[k + 2];
+			int t3 = TD0[s3 >>> 24] ^ TD1[(s2 >>> 16) & 0xff] ^ TD2[(s1 >>> 8) & 0xff] ^ TD3[s0 & 0xff] ^ rk[k + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+		}
+		
+		// last round has no InvMixColumns
+		putInt(data, offset, lastRound(s0, s3, s2, s1) ^ rk[k]);
+		putInt(data, offset + 4, lastRound(s1, s0, s3, s2) ^ rk[k + 1]);
+		putInt(data, offset + 8, lastRound(s2, s1, s0, s3) ^ rk[k + 2]);
+		putInt(data, offset + 12, lastRound(s3, s2, s1, s0) ^ rk[k + 3]);
+	}
+	
+	private static int lastRound(int a, int b, int c, int d) {
+		return (SI[a >>> 24] << 24) | (SI[(b >>> 16) & 0xff] << 16) | (SI[(c >>> 8) & 0xff] << 8) | SI[d & 0xff];
+	}
+	
+	/**
+	 * FIPS-197 key expansion (for encryption).
+	 */
+	private static int[] expandKey(byte[] key, int keyWords, int rounds) {
+		int[] w = new int[4 * (rounds + 1)];
+		for (int n = 0; n < keyWords; n++) {
+			w[n] = getInt(key, 4 * n);
+		}
+		int rcon = 1;
+		for (int n = keyWords; n < w.length; n++) {
+			int temp = w[n - 1];
+			if (n % keyWords == 0) {
+				temp = subWord((temp << 8) | (temp >>> 24)) ^ (rcon << 24);
+				rcon = xtime(rcon);
+			} else if (keyWords > 6 && n % keyWords == 4) {
+				temp = subWord(temp);
+			}
+			w[n] = w[n - keyWords] ^ temp;
+		}
+		return w;
+	}
+	
+	/**
+	 * Key schedule for the equivalent inverse cipher: round keys in
+	 * reverse order, with InvMixColumns applied to all but the first
+	 * and last.
+	 */
+	private static int[] invertKey(int[] encryptKeys, int rounds) {
+		int[] result = new int[encryptKeys.length];
+		for (int round = 0; round <= rounds; round++) {
+			System.arraycopy(encryptKeys, 4 * (rounds - round), result, 4 * round, 4);
+		}
+		for (int n = 4; n < 4 * rounds; n++) {
+			int w = result[n];
+			// TDx[SI[S[b]]] == InvMixColumns of b in that row
+			result[n] = TD0[S[w >>> 24]] ^ TD1[S[(w >>> 16) & 0xff]] ^ TD2[S[(w >>> 8) & 0xff]] ^ TD3[S[w & 0xff]];
+		}
+		return result;
+	}
+	
+	private static int subWord(int w) {
+		return (S[w >>> 24] << 24) | (S[(w >>> 16) & 0xff] << 16) | (S[(w >>> 8) & 0xff] << 8) | S[w & 0xff];
+	}
+	
+	private static int xtime(int x) {
+		x <<= 1;
+		return (x & 0x100) != 0 ? (x ^ 0x11b) : x;
+	}
+	
+	private static int mul(int x, int y) {
+		int result = 0;
+		while (y != 0) {
+			if ((y & 1) != 0) {
+				result ^= x;
+			}
+			x = xtime(x);
+			y >>>= 1;
+		}
+		return result;
+	}
+	
+	private static int getInt(byte[] data, int offset) {
+		return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+				| ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+	}
+	
+	private static void putInt(byte[] data, int offset, int value) {
+		data[offset] = (byte)(value >>> 24);
+		data[offset + 1] = (byte)(value >>> 16);
+		data[offset + 2] = (byte)(value >>> 8);
+		data[offset + 3] = (byte)value;
+	}
+	
+}
@@ -0,0 +1,141 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-256 FpmCipher implemented in pure java by TableAESDecryptor,
+ * for runtimes where the JCE provider's per call overhead dominates
+ * decrypting FPM's many short fields. Gives the same results as
+ * JCEFpmCipher with "AES/ECB/NoPadding". Encryption is delegated to
+ * the default JCE provider. Stateless, and so thread safe.
+ * 
+ * @author braiden
+ *
+ */
+
+public class TableAESFpmCipher implements FpmCipher {
+
+	// name CryptoProviderSelector uses for this implementation,
+	// alongside the names of the installed JCE providers
+	public static final String PROVIDER_NAME = "FpmTableAES";
+	
+	private static final String KEY_ALGORITHM = "AES";
+	
+	@Override
+	public String decrypt(byte[] key, String encryptedData) throws GeneralSecurityException {
+		TableAESDecryptor aes = new TableAESDecryptor(key);
+		FpmFieldDecryptor decryptor = new TableAESFpmFieldDecryptor(aes);
+		try {
+			return decryptor.decrypt(encryptedData);
+		} finally {
+			decryptor.wipe();
+			aes.destroy();
+		}
+	}
+
+	@Override
+	public byte[] decryptRaw(byte[] key, String encryptedData) throws GeneralSecurityException {
+		TableAESDecryptor aes = new TableAESDecryptor(key);
+		FpmFieldDecryptor decryptor = new TableAESFpmFieldDecryptor(aes);
+		try {
+			return decryptor.decryptRaw(encryptedData);
+		} finally {
+			decryptor.wipe();
+			aes.destroy();
+		}
+	}
+
+	@Override
+	public int decryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.decryptRaw(src, dst);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public int encryptRaw(byte[] key, ByteBuffer src, ByteBuffer dst) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encryptRaw(src, dst);
+		} finally {
+			session.close();
+		}
+	}
+	
+	@Override
+	public String[] decrypt(byte[] key, String[] encryptedData) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.decrypt(encryptedData);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public String encrypt(byte[] key, String plainText) throws GeneralSecurityException {
+		return encrypt(key, plainText, 0);
+	}
+
+	@Override
+	public String encrypt(byte[] key, String plainText, int minLengthBytes) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encrypt(plainText, minLengthBytes);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Override
+	public String encryptRaw(byte[] key, byte[] clear) throws GeneralSecurityException {
+		FpmCipherSession session = createSession(key);
+		try {
+			return session.encryptRaw(clear);
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Create a session which expands the key once,
+	 * and shares it between all its decryptors.
+	 */
+	@Override
+	public FpmCipherSession createSession(byte[] key) throws GeneralSecurityException {
+		return new TableAESFpmCipherSession(new TableAESDecryptor(key), new SecretKeySpec(key, KEY_ALGORITHM));
+	}
+
+}
@@ -0,0 +1,75 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * FpmCipherSession for TableAESFpmCipher. All pooled
+ * decryptors share the one expanded key. Encryption, only
+ * needed when saving, is done by the default JCE provider.
+ * 
+ * @author braiden
+ *
+ */
+
+public class TableAESFpmCipherSession extends PooledFpmCipherSession {
+
+	private final TableAESDecryptor aes;
+	private final SecretKeySpec key;
+	
+	protected TableAESFpmCipherSession(TableAESDecryptor aes, SecretKeySpec key) {
+		this.aes = aes;
+		this.key = key;
+	}
+	
+	/**
+	 * Also zeros the expanded key. Calls still in
+	 * progress at the time get garbage plain text.
+	 */
+	@Override
+	public void close() {
+		super.close();
+		aes.destroy();
+	}
+	
+	@Override
+	protected FpmFieldDecryptor createDecryptor() throws GeneralSecurityException {
+		return new TableAESFpmFieldDecryptor(aes);
+	}
+	
+	@Override
+	protected FpmFieldEncryptor createEncryptor() throws GeneralSecurityException {
+		Cipher cipher = Cipher.getInstance(JCEFpmCipher.DEFAULT_CIPHER);
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		return new JCEFpmFieldEncryptor(cipher, FpmRandomPool.getDefault());
+	}
+	
+}
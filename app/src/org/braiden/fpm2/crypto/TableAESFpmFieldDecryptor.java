@@ -0,0 +1,53 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+
+/**
+ * FpmFieldDecryptor using TableAESDecryptor, whose
+ * expanded key may be shared with other instances.
+ * 
+ * @author braiden
+ *
+ */
+
+public class TableAESFpmFieldDecryptor extends FpmFieldDecryptor {
+
+	private final TableAESDecryptor aes;
+	
+	public TableAESFpmFieldDecryptor(TableAESDecryptor aes) {
+		super(TableAESDecryptor.BLOCK_SIZE);
+		this.aes = aes;
+	}
+	
+	@Override
+	protected void decryptBlocks(byte[] data, int offset, int length) throws GeneralSecurityException {
+		aes.decryptBlocks(data, offset, length);
+	}
+	
+}
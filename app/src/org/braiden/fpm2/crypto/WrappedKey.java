@@ -0,0 +1,155 @@
+package org.braiden.fpm2.crypto;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A cipher key, held in memory encrypted under a short PIN.
+ * 
+ * The PIN is stretched with PBKDF2 (far fewer iterations than the
+ * passphrase KDF, so unwrapping is quick) and a random salt, and the
+ * key is AES encrypted with the result. Nothing is stored which would
+ * tell a right PIN from a wrong one, unwrap() with a wrong PIN simply
+ * returns the wrong key. The caller must check the key (e.g. with the
+ * vstring) and call resetAttempts() once it proves correct. After
+ * maxAttempts unwraps without a reset the key is destroyed.
+ * 
+ * Keys must be a multiple of the AES block size. As the wrapped data
+ * is random and only a couple of blocks ECB is adequate here.
+ * 
+ * @author braiden
+ *
+ */
+
+public class WrappedKey {
+
+	public static final int DEFAULT_ITERATIONS = 2048;
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final int SALT_LENGTH_BYTES = 16;
+	
+	protected static final String WRAP_CIPHER = "AES/ECB/NoPadding";
+	protected static final String WRAP_KEY_ALGORITHM = "AES";
+	protected static final int WRAP_KEY_LENGTH_BYTES = 32;
+	protected static final int BLOCK_SIZE = 16;
+	
+	private final byte[] salt = new byte[SALT_LENGTH_BYTES];
+	private final PBKDF2KeyGenerator keyGenerator;
+	private final int maxAttempts;
+	private byte[] wrappedKey;
+	private int attemptsRemaining;
+	private long lastUsed;
+	
+	public WrappedKey(byte[] key, String pin, int maxAttempts) throws GeneralSecurityException {
+		this(key, pin, maxAttempts, DEFAULT_ITERATIONS);
+	}
+	
+	public WrappedKey(byte[] key, String pin, int maxAttempts, int iterations) throws GeneralSecurityException {
+		if (key == null || key.length == 0 || key.length % BLOCK_SIZE != 0) {
+			throw new IllegalArgumentException("Key length must be a multiple of " + BLOCK_SIZE + ".");
+		}
+		this.keyGenerator = PBKDF2FpmKeyGenerator.createKeyGenerator(WRAP_KEY_LENGTH_BYTES, iterations,
+				CryptoProviderSelector.getMacProvider());
+		this.maxAttempts = maxAttempts;
+		this.attemptsRemaining = maxAttempts;
+		this.lastUsed = System.currentTimeMillis();
+		new SecureRandom().nextBytes(salt);
+		this.wrappedKey = crypt(Cipher.ENCRYPT_MODE, pin, key);
+	}
+	
+	/**
+	 * Unwrap the key with the given PIN, using up one attempt.
+	 * Returns null if the key is destroyed, or no attempts remain.
+	 * 
+	 * @param pin
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public synchronized byte[] unwrap(String pin) throws GeneralSecurityException {
+		if (wrappedKey == null || attemptsRemaining <= 0) {
+			destroy();
+			return null;
+		}
+		attemptsRemaining--;
+		return crypt(Cipher.DECRYPT_MODE, pin, wrappedKey);
+	}
+	
+	/**
+	 * The last unwrapped key was correct, restore attempts
+	 * and restart the idle period.
+	 */
+	public synchronized void resetAttempts() {
+		attemptsRemaining = maxAttempts;
+		lastUsed = System.currentTimeMillis();
+	}
+	
+	public synchronized int getAttemptsRemaining() {
+		return attemptsRemaining;
+	}
+	
+	/**
+	 * True if not successfully used for at least idleMilliseconds.
+	 * 
+	 * @param idleMilliseconds
+	 * @return
+	 */
+	public synchronized boolean isIdle(long idleMilliseconds) {
+		return System.currentTimeMillis() - lastUsed >= idleMilliseconds;
+	}
+	
+	/**
+	 * Wipe the wrapped key, it can not be unwrapped afterwards.
+	 */
+	public synchronized void destroy() {
+		if (wrappedKey != null) {
+			Arrays.fill(wrappedKey, (byte)0);
+			wrappedKey = null;
+		}
+		attemptsRemaining = 0;
+	}
+	
+	public synchronized boolean isDestroyed() {
+		return wrappedKey == null;
+	}
+	
+	private byte[] crypt(int mode, String pin, byte[] input) throws GeneralSecurityException {
+		byte[] pinKey = keyGenerator.generateKey(pin, salt);
+		try {
+			Cipher cipher = Cipher.getInstance(WRAP_CIPHER);
+			cipher.init(mode, new SecretKeySpec(pinKey, WRAP_KEY_ALGORITHM));
+			return cipher.doFinal(input);
+		} finally {
+			Arrays.fill(pinKey, (byte)0);
+		}
+	}
+	
+}
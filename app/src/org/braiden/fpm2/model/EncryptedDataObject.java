@@ -0,0 +1,64 @@
+package org.braiden.fpm2.model;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/**
+ * DataObject whose encrypted string fields can be read and written
+ * directly by number, so they can be decrypted without reflection.
+ * The password is never one of these fields, it stays encrypted.
+ * 
+ * @author braiden
+ *
+ */
+
+public interface EncryptedDataObject extends DataObject {
+
+	/**
+	 * Not a bean getter, so it isn't seen as a property
+	 * by PropertyUtils (or the xml parser).
+	 * 
+	 * @return bits of every field which is stored encrypted
+	 */
+	int encryptedFields();
+	
+	/**
+	 * Value of one field, as stored, without decrypting it.
+	 * 
+	 * @param field one bit of encryptedFields()
+	 * @return
+	 */
+	String getField(int field);
+	
+	/**
+	 * Store the clear text value of one field.
+	 * 
+	 * @param field one bit of encryptedFields()
+	 * @param value
+	 */
+	void setField(int field, String value);
+	
+}
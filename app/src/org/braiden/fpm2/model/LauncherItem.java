@@ -26,7 +26,14 @@ package org.braiden.fpm2.model;
  *
  */
 
-public class LauncherItem implements DataObject {
+public class LauncherItem extends LazyDataObject {
+
+	// fields which may be left encrypted (see LazyDataObject)
+	public static final int FIELD_TITLE = 1;
+	public static final int FIELD_CMDLINE = 2;
+	public static final int FIELD_COPY_USER = 4;
+	public static final int FIELD_COPY_PASSWORD = 8;
+	public static final int ALL_FIELDS = (1 << 4) - 1;
 
 	private String title;
 	private String cmdline;
@@ -34,35 +41,84 @@ public class LauncherItem implements DataObject {
 	private String copyPassword;
 	
 	public String getCmdline() {
+		decryptIfPending(FIELD_CMDLINE);
 		return cmdline;
 	}
 	
-	public void setCmdline(String cmdline) {
+	public synchronized void setCmdline(String cmdline) {
 		this.cmdline = cmdline;
+		clearPending(FIELD_CMDLINE);
 	}
 
 	public String getTitle() {
+		decryptIfPending(FIELD_TITLE);
 		return title;
 	}
 
-	public void setTitle(String title) {
+	public synchronized void setTitle(String title) {
 		this.title = title;
+		clearPending(FIELD_TITLE);
 	}
 
 	public String getCopyUser() {
+		decryptIfPending(FIELD_COPY_USER);
 		return copyUser;
 	}
 
-	public void setCopyUser(String copyUser) {
+	public synchronized void setCopyUser(String copyUser) {
 		this.copyUser = copyUser;
+		clearPending(FIELD_COPY_USER);
 	}
 
 	public String getCopyPassword() {
+		decryptIfPending(FIELD_COPY_PASSWORD);
 		return copyPassword;
 	}
 
-	public void setCopyPassword(String copyPassword) {
+	public synchronized void setCopyPassword(String copyPassword) {
 		this.copyPassword = copyPassword;
+		clearPending(FIELD_COPY_PASSWORD);
+	}
+
+	@Override
+	public int encryptedFields() {
+		return ALL_FIELDS;
+	}
+	
+	@Override
+	protected String getFieldValue(int field) {
+		switch (field) {
+			case FIELD_TITLE:
+				return title;
+			case FIELD_CMDLINE:
+				return cmdline;
+			case FIELD_COPY_USER:
+				return copyUser;
+			case FIELD_COPY_PASSWORD:
+				return copyPassword;
+			default:
+				throw new IllegalArgumentException("No field " + field + ".");
+		}
+	}
+	
+	@Override
+	protected void setFieldValue(int field, String value) {
+		switch (field) {
+			case FIELD_TITLE:
+				title = value;
+				break;
+			case FIELD_CMDLINE:
+				cmdline = value;
+				break;
+			case FIELD_COPY_USER:
+				copyUser = value;
+				break;
+			case FIELD_COPY_PASSWORD:
+				copyPassword = value;
+				break;
+			default:
+				throw new IllegalArgumentException("No field " + field + ".");
+		}
 	}
 
 	@Override
@@ -0,0 +1,171 @@
+package org.braiden.fpm2.model;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/**
+ * DataObject whose string fields can be left encrypted, and are
+ * decrypted the first time they are read. Each field is one bit,
+ * set while the field still holds FPM encoded cipher text.
+ * 
+ * Getters check the (volatile) bit without locking, and decrypt
+ * with the lock held, so each field is decrypted at most once
+ * however many threads read it. A field which fails to decrypt
+ * stays pending. Setters clear the bit, the value set is clear text.
+ * 
+ * @author braiden
+ *
+ */
+
+public abstract class LazyDataObject implements EncryptedDataObject {
+
+	private volatile int pendingFields = 0;
+	private FieldDecrypter decrypter = null;
+	
+	/**
+	 * Raw value of a field, without decrypting it.
+	 * 
+	 * @param field one of the subclass's field bits
+	 * @return
+	 */
+	protected abstract String getFieldValue(int field);
+	
+	protected abstract void setFieldValue(int field, String value);
+	
+	@Override
+	public synchronized String getField(int field) {
+		return getFieldValue(field);
+	}
+	
+	@Override
+	public synchronized void setField(int field, String value) {
+		setFieldValue(field, value);
+		clearPending(field);
+	}
+	
+	/**
+	 * Mark fields as still encrypted, to be decrypted by decrypter
+	 * when read. Fields without a value are never pending.
+	 * 
+	 * @param decrypter
+	 * @param fields
+	 */
+	public synchronized void setPendingFields(FieldDecrypter decrypter, int fields) {
+		int pending = 0;
+		for (int field = 1; field != 0 && field <= fields; field <<= 1) {
+			if ((fields & field) != 0 && getFieldValue(field) != null) {
+				pending |= field;
+			}
+		}
+		this.decrypter = pending != 0 ? decrypter : null;
+		this.pendingFields = pending;
+	}
+	
+	public boolean isPending(int field) {
+		return (pendingFields & field) != 0;
+	}
+	
+	/**
+	 * Encrypted value of a pending field, for callers which
+	 * decrypt it themselves, then call setDecrypted().
+	 * 
+	 * @param field
+	 * @return null if the field is not pending
+	 */
+	public synchronized String getPendingValue(int field) {
+		return isPending(field) ? getFieldValue(field) : null;
+	}
+	
+	/**
+	 * Store the clear text of a pending field, decrypted by
+	 * the caller (e.g. in a batch with other fields).
+	 * 
+	 * @param field
+	 * @param encryptedData the value it was decrypted from
+	 * @param clearText
+	 * @return false if the field was no longer pending with that value
+	 */
+	public synchronized boolean setDecrypted(int field, String encryptedData, String clearText) {
+		// same instance, not equals(), a setter may have stored an equal value
+		if ((pendingFields & field) == 0 || getFieldValue(field) != encryptedData) {
+			return false;
+		}
+		setFieldValue(field, clearText);
+		clearPending(field);
+		return true;
+	}
+	
+	/**
+	 * Call from getters before returning the field.
+	 * 
+	 * @param field
+	 */
+	protected final void decryptIfPending(int field) {
+		if ((pendingFields & field) != 0) {
+			decryptPending(field);
+		}
+	}
+	
+	/**
+	 * Call from setters, with the lock held, after storing the
+	 * (clear text) value.
+	 * 
+	 * @param field
+	 */
+	protected final void clearPending(int field) {
+		int pending = pendingFields & ~field;
+		if (pending == 0) {
+			decrypter = null;
+		}
+		// volatile write publishes the value stored before it
+		pendingFields = pending;
+	}
+	
+	/**
+	 * Copies fields and pending bits together, the
+	 * clone decrypts its own fields when read.
+	 */
+	@Override
+	public synchronized Object clone() throws CloneNotSupportedException {
+		return super.clone();
+	}
+	
+	private synchronized void decryptPending(int field) {
+		if ((pendingFields & field) != 0) {
+			String clearText;
+			try {
+				clearText = decrypter.decryptField(getFieldValue(field));
+			} catch (Exception e) {
+				// still encrypted, the getter returns it as stored
+				// (as eager decryption does), and the next read retries.
+				return;
+			}
+			setFieldValue(field, clearText);
+			clearPending(field);
+		}
+	}
+	
+}
@@ -26,7 +26,17 @@ package org.braiden.fpm2.model;
  *
  */
 
-public class PasswordItem implements DataObject {
+public class PasswordItem extends LazyDataObject {
+
+	// fields which may be left encrypted (see LazyDataObject),
+	// the password is only ever decrypted on demand, by FpmCrypt
+	public static final int FIELD_TITLE = 1;
+	public static final int FIELD_URL = 2;
+	public static final int FIELD_USER = 4;
+	public static final int FIELD_NOTES = 8;
+	public static final int FIELD_CATEGORY = 16;
+	public static final int FIELD_LAUNCHER = 32;
+	public static final int ALL_FIELDS = (1 << 6) - 1;
 
 	private int id;
 	private String user;
@@ -47,19 +57,23 @@ public class PasswordItem implements DataObject {
 	}
 
 	public String getUser() {
+		decryptIfPending(FIELD_USER);
 		return user;
 	}
 
-	public void setUser(String user) {
+	public synchronized void setUser(String user) {
 		this.user = user;
+		clearPending(FIELD_USER);
 	}
 
 	public String getUrl() {
+		decryptIfPending(FIELD_URL);
 		return url;
 	}
 
-	public void setUrl(String url) {
+	public synchronized void setUrl(String url) {
 		this.url = url;
+		clearPending(FIELD_URL);
 	}
 
 	public String getPassword() {
@@ -71,35 +85,43 @@ public class PasswordItem implements DataObject {
 	}
 
 	public String getNotes() {
+		decryptIfPending(FIELD_NOTES);
 		return notes;
 	}
 
-	public void setNotes(String notes) {
+	public synchronized void setNotes(String notes) {
 		this.notes = notes;
+		clearPending(FIELD_NOTES);
 	}
 
 	public String getCategory() {
+		decryptIfPending(FIELD_CATEGORY);
 		return category;
 	}
 
-	public void setCategory(String category) {
+	public synchronized void setCategory(String category) {
 		this.category = category;
+		clearPending(FIELD_CATEGORY);
 	}
 
 	public String getLauncher() {
+		decryptIfPending(FIELD_LAUNCHER);
 		return launcher;
 	}
 
-	public void setLauncher(String launcher) {
+	public synchronized void setLauncher(String launcher) {
 		this.launcher = launcher;
+		clearPending(FIELD_LAUNCHER);
 	}
 
 	public String getTitle() {
+		decryptIfPending(FIELD_TITLE);
 		return title;
 	}
 
-	public void setTitle(String title) {
+	public synchronized void setTitle(String title) {
 		this.title = title;
+		clearPending(FIELD_TITLE);
 	}
 	
 	public int getId() {
@@ -110,6 +132,57 @@ public class PasswordItem implements DataObject {
 		this.id = id;
 	}
 
+	@Override
+	public int encryptedFields() {
+		return ALL_FIELDS;
+	}
+	
+	@Override
+	protected String getFieldValue(int field) {
+		switch (field) {
+			case FIELD_TITLE:
+				return title;
+			case FIELD_URL:
+				return url;
+			case FIELD_USER:
+				return user;
+			case FIELD_NOTES:
+				return notes;
+			case FIELD_CATEGORY:
+				return category;
+			case FIELD_LAUNCHER:
+				return launcher;
+			default:
+				throw new IllegalArgumentException("No field " + field + ".");
+		}
+	}
+	
+	@Override
+	protected void setFieldValue(int field, String value) {
+		switch (field) {
+			case FIELD_TITLE:
+				title = value;
+				break;
+			case FIELD_URL:
+				url = value;
+				break;
+			case FIELD_USER:
+				user = value;
+				break;
+			case FIELD_NOTES:
+				notes = value;
+				break;
+			case FIELD_CATEGORY:
+				category = value;
+				break;
+			case FIELD_LAUNCHER:
+				launcher = value;
+				break;
+			default:
+				throw new IllegalArgumentException("No field " + field + ".");
+		}
+	}
+
 	@Override
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
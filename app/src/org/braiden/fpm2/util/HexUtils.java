@@ -2,20 +2,19 @@ package org.braiden.fpm2.util;
 
 public class HexUtils {
 
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
 	public static String toHex(byte[] data) {
-		StringBuffer result = new StringBuffer();
-		if (data != null) {
-			for (int n = 0; n < data.length; n++)
-			{
-				String hex = Integer.toHexString(0xFF & data[n]);
-				if (hex.length() == 1)
-				{
-					result.append("0");
-				}
-				result.append(hex);
-			}
+		if (data == null) {
+			return "";
+		}
+		char[] result = new char[data.length * 2];
+		for (int n = 0; n < data.length; n++)
+		{
+			result[n * 2] = HEX[(data[n] >> 4) & 0x0f];
+			result[n * 2 + 1] = HEX[data[n] & 0x0f];
 		}
-		return result.toString();
+		return new String(result);
 	}
 	
 }
@@ -0,0 +1,90 @@
+package org.braiden.fpm2.util;
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * InputStream which reports bytes read to a ProgressMonitor,
+ * and stops reading once the monitor is canceled.
+ * 
+ * @author braiden
+ *
+ */
+public class ProgressInputStream extends FilterInputStream {
+
+	private final ProgressMonitor monitor;
+	private final long length;
+	private long position = 0;
+	
+	/**
+	 * @param in
+	 * @param length expected length of stream, or <= 0 if unknown
+	 * @param monitor
+	 */
+	public ProgressInputStream(InputStream in, long length, ProgressMonitor monitor) {
+		super(in);
+		this.length = length;
+		this.monitor = monitor;
+	}
+
+	@Override
+	public int read() throws IOException {
+		monitor.checkCanceled();
+		int result = super.read();
+		if (result >= 0) {
+			advance(1);
+		}
+		return result;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		monitor.checkCanceled();
+		int result = super.read(b, off, len);
+		if (result > 0) {
+			advance(result);
+		}
+		return result;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long result = super.skip(n);
+		advance(result);
+		return result;
+	}
+	
+	private void advance(long count) {
+		position += count;
+		if (length > 0) {
+			monitor.setProgress((float) position / length);
+		}
+	}
+	
+}
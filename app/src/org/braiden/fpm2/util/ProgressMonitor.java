@@ -0,0 +1,89 @@
+package org.braiden.fpm2.util;
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+/**
+ * Receives progress of a long running operation, and lets
+ * the caller request that the operation stop early.
+ * 
+ * Progress is reported as a fraction 0.0 to 1.0. Operations
+ * are expected to call checkCanceled() periodically, which
+ * throws OperationCanceledException once cancel was requested.
+ * 
+ * @author braiden
+ *
+ */
+public abstract class ProgressMonitor {
+
+	/**
+	 * Monitor which ignores progress, and is never canceled.
+	 */
+	public static final ProgressMonitor NULL = new ProgressMonitor() {
+		@Override
+		public void setProgress(float fraction) {
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return false;
+		}
+	};
+	
+	public abstract void setProgress(float fraction);
+	
+	public abstract boolean isCanceled();
+	
+	public void checkCanceled() {
+		if (isCanceled()) {
+			throw new OperationCanceledException();
+		}
+	}
+	
+	/**
+	 * Get a monitor for one stage of this operation. Progress
+	 * 0.0 to 1.0 of the sub monitor is reported as start to end
+	 * on this monitor. Cancellation is shared.
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public ProgressMonitor subMonitor(final float start, final float end) {
+		final ProgressMonitor parent = this;
+		return new ProgressMonitor() {
+			@Override
+			public void setProgress(float fraction) {
+				parent.setProgress(start + (end - start) * Math.min(1.0f, Math.max(0.0f, fraction)));
+			}
+
+			@Override
+			public boolean isCanceled() {
+				return parent.isCanceled();
+			}
+		};
+	}
+	
+}
@@ -57,11 +57,33 @@ public class FpmFileXmlParser {
 	private static final String TAG = "FpmXmlParser";
 	
 	public static FpmFile parse(InputStream is) throws IOException, SAXException {
-		FpmFileSaxHandler handler = new FpmFileSaxHandler();
+		return parse(is, null);
+	}
+	
+	/**
+	 * Parse, calling keyInfoListener as soon as KeyInfo has been
+	 * read, before the rest of the file.
+	 * 
+	 * @param is
+	 * @param keyInfoListener may be null
+	 * @return
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public static FpmFile parse(InputStream is, KeyInfoListener keyInfoListener) throws IOException, SAXException {
+		FpmFileSaxHandler handler = new FpmFileSaxHandler(keyInfoListener);
 		Xml.parse(is, Xml.Encoding.UTF_8, handler);
 		return handler.getFpmFile();
 	}
 	
+	/**
+	 * Told when KeyInfo is parsed, e.g. to start generating
+	 * the key while items are still being parsed.
+	 */
+	public static interface KeyInfoListener {
+		void onKeyInfo(KeyInfo keyInfo) throws SAXException;
+	}
+	
 	public static class FpmFileSaxHandler extends DefaultHandler {
 		
 		public static final String TAG_FPM = "FPM";
@@ -70,9 +92,18 @@ public class FpmFileXmlParser {
 		public static final String TAG_PASSWORD_ITEM = "PasswordItem";
 		public static final String TAG_DEFAULT = "default";
 		
+		private final KeyInfoListener keyInfoListener;
 		private FpmFile fpmFile = null;
 		private DataObject currentNode = null;
 		private StringBuffer currentText = null;
+		
+		public FpmFileSaxHandler() {
+			this(null);
+		}
+		
+		public FpmFileSaxHandler(KeyInfoListener keyInfoListener) {
+			this.keyInfoListener = keyInfoListener;
+		}
 
 		public FpmFile getFpmFile() {
 			return fpmFile;
@@ -136,6 +167,9 @@ public class FpmFileXmlParser {
 					Log.w(TAG, "Exception applying bean property \"" + propertyName + "\" to \"" + currentNode + "\".", e);
 				}
 			}
+			if (keyInfoListener != null && localName.equals(TAG_KEY_INFO)) {
+				keyInfoListener.onKeyInfo(fpmFile.getKeyInfo());
+			}
 		}
 
 		private void applyAttributesToBean(DataObject bean, Attributes attributes) {
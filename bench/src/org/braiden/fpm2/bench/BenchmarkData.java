@@ -0,0 +1,86 @@
+package org.braiden.fpm2.bench;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+
+import org.braiden.fpm2.crypto.JCEFpmCipher;
+
+/**
+ * Inputs shared by the benchmarks, FPM's default
+ * salt length, a typical passphrase, and encrypted
+ * fields of a given length.
+ * 
+ * @author braiden
+ *
+ */
+
+public class BenchmarkData {
+
+	public static final String PASSPHRASE = "correct horse battery staple";
+	public static final String SALT = "aecfpgakdhnfplbj";
+	// a fixed AES-256 key for the field benchmarks
+	public static final byte[] KEY = {
+		-23, 39, 92, 75, -42, 12, 45, -70, -69, -104, -73, -40, 34, -26, -16, -47,
+		35, -23, -102, -47, -57, -45, -78, 46, 55, -55, -3, 73, -124, 58, -6, 21
+	};
+	private static final String TEXT = "The quick brown fox jumps over the lazy dog. ";
+	
+	private BenchmarkData() {
+		
+	}
+	
+	/**
+	 * Encrypt ASCII text, under KEY, which encodes to exactly
+	 * encodedLength FPM base16 chars (a multiple of 32).
+	 * 
+	 * @param encodedLength
+	 * @return
+	 * @throws GeneralSecurityException
+	 */
+	public static String createField(int encodedLength) throws GeneralSecurityException {
+		// text and '\0' fill every block, no padding
+		StringBuilder text = new StringBuilder();
+		while (text.length() < encodedLength / 2 - 1) {
+			text.append(TEXT.charAt(text.length() % TEXT.length()));
+		}
+		return new JCEFpmCipher().encrypt(KEY, text.toString());
+	}
+	
+	/**
+	 * count copies of createField(encodedLength),
+	 * each with its own random padding.
+	 */
+	public static String[] createFields(int encodedLength, int count) throws GeneralSecurityException {
+		String[] result = new String[count];
+		for (int n = 0; n < count; n++) {
+			result[n] = createField(encodedLength);
+		}
+		return result;
+	}
+	
+}
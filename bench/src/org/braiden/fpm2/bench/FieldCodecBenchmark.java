@@ -0,0 +1,118 @@
+package org.braiden.fpm2.bench;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.braiden.fpm2.crypto.FpmBase16;
+import org.braiden.fpm2.crypto.FpmCryptoUtils;
+import org.braiden.fpm2.crypto.JCEFpmCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cipher independent layers of decrypting one field, each on
+ * its own: base16 decoding and unrotating, both the allocating
+ * FpmCryptoUtils calls and the buffer reusing ones FpmFieldDecryptor
+ * uses. Reported as ns per field, "-prof gc" gives bytes per field.
+ * 
+ * fieldLength is in FPM base16 chars, from a short title to
+ * multi-kilobyte notes.
+ * 
+ * @author braiden
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldCodecBenchmark {
+
+	private static final int BLOCK_SIZE = 16;
+	
+	@Param({"32", "64", "512", "8192"})
+	public int fieldLength;
+	
+	private String field;
+	private byte[] decoded;
+	// decrypted, but still rotated, plain text
+	private byte[] rotated;
+	private byte[] buffer;
+	
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		field = BenchmarkData.createField(fieldLength);
+		decoded = FpmBase16.decode(field);
+		Cipher cipher = Cipher.getInstance(JCEFpmCipher.DEFAULT_CIPHER);
+		cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(BenchmarkData.KEY, "AES"));
+		rotated = cipher.doFinal(decoded);
+		buffer = new byte[decoded.length];
+	}
+	
+	@Benchmark
+	public byte[] decodeString() {
+		return FpmCryptoUtils.decodeString(field);
+	}
+	
+	@Benchmark
+	public byte[] decodeIntoBuffer() {
+		FpmBase16.decode(field, buffer, 0);
+		return buffer;
+	}
+	
+	@Benchmark
+	public byte[] unrotate() {
+		return FpmCryptoUtils.unrotate(rotated, BLOCK_SIZE);
+	}
+	
+	@Benchmark
+	public int unrotateCString() {
+		return FpmCryptoUtils.unrotateCString(rotated, 0, rotated.length, BLOCK_SIZE, buffer);
+	}
+	
+	@Benchmark
+	public String encode() {
+		return FpmBase16.encode(decoded);
+	}
+	
+}
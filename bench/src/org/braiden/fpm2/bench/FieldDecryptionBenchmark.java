@@ -0,0 +1,158 @@
+package org.braiden.fpm2.bench;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.braiden.fpm2.crypto.FpmBase16;
+import org.braiden.fpm2.crypto.FpmCipher;
+import org.braiden.fpm2.crypto.FpmCipherSession;
+import org.braiden.fpm2.crypto.JCEFpmCipher;
+import org.braiden.fpm2.crypto.TableAESDecryptor;
+import org.braiden.fpm2.crypto.TableAESFpmCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decrypting one field through each layer of the cipher backends,
+ * reported as ns per field ("-prof gc" for bytes per field):
+ * 
+ * blocks - the block cipher alone, in place on decoded data.
+ * cipherDecrypt - FpmCipher.decrypt(key, field), key set up per call.
+ * sessionDecrypt - FpmCipherSession.decrypt(), as FpmCrypt.decrypt().
+ * sessionDecryptChars - the same into a reused CharBuffer, no String.
+ * sessionDecryptBatch - FpmCipherSession.decrypt(String[]) of
+ * BATCH_FIELDS fields, as decryptAll() does, per field.
+ * 
+ * Comparing blocks to sessionDecrypt, and sessionDecrypt to the
+ * FieldCodecBenchmark results, shows which layer dominates.
+ * 
+ * @author braiden
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldDecryptionBenchmark {
+
+	public static final String BACKEND_JCE = "JCE";
+	public static final String BACKEND_TABLE_AES = "TableAES";
+	public static final int BATCH_FIELDS = 64;
+	
+	@Param({BACKEND_JCE, BACKEND_TABLE_AES})
+	public String backend;
+	
+	@Param({"32", "64", "512", "8192"})
+	public int fieldLength;
+	
+	private FpmCipher cipher;
+	private FpmCipherSession session;
+	private String field;
+	private String[] fields;
+	private CharBuffer chars;
+	private byte[] decoded;
+	private Cipher jceCipher;
+	private TableAESDecryptor tableAES;
+	
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		if (BACKEND_JCE.equals(backend)) {
+			cipher = new JCEFpmCipher();
+			jceCipher = Cipher.getInstance(JCEFpmCipher.DEFAULT_CIPHER);
+			jceCipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(BenchmarkData.KEY, "AES"));
+		} else if (BACKEND_TABLE_AES.equals(backend)) {
+			cipher = new TableAESFpmCipher();
+			tableAES = new TableAESDecryptor(BenchmarkData.KEY);
+		} else {
+			throw new IllegalArgumentException("Unknown backend \"" + backend + "\".");
+		}
+		session = cipher.createSession(BenchmarkData.KEY);
+		field = BenchmarkData.createField(fieldLength);
+		fields = BenchmarkData.createFields(fieldLength, BATCH_FIELDS);
+		chars = CharBuffer.allocate(FpmBase16.decodedLength(fieldLength));
+		decoded = FpmBase16.decode(field);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		session.close();
+	}
+	
+	@Benchmark
+	public byte[] blocks() throws GeneralSecurityException {
+		// decrypting repeatedly in place is fine, the work is the same
+		if (tableAES != null) {
+			tableAES.decryptBlocks(decoded, 0, decoded.length);
+		} else {
+			jceCipher.doFinal(decoded, 0, decoded.length, decoded, 0);
+		}
+		return decoded;
+	}
+	
+	@Benchmark
+	public String cipherDecrypt() throws GeneralSecurityException {
+		return cipher.decrypt(BenchmarkData.KEY, field);
+	}
+	
+	@Benchmark
+	public String sessionDecrypt() throws GeneralSecurityException {
+		return session.decrypt(field);
+	}
+	
+	@Benchmark
+	public int sessionDecryptChars() throws GeneralSecurityException {
+		chars.clear();
+		return session.decrypt(field, chars);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH_FIELDS)
+	public String[] sessionDecryptBatch() throws GeneralSecurityException {
+		return session.decrypt(fields);
+	}
+	
+}
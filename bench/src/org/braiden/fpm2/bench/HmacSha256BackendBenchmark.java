@@ -0,0 +1,133 @@
+package org.braiden.fpm2.bench;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.braiden.fpm2.crypto.HmacSha256PBKDF2KeyGenerator;
+import org.braiden.fpm2.crypto.PBKDF2KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The PBKDF2-HMAC-SHA256 backends side by side, on FPM's
+ * parameters by default: the Mac re-keyed per iteration, cloned
+ * MessageDigest pad states, the int[] state engine, and the
+ * platform SecretKeyFactory (PBKDF2WithHmacSHA256, Java 8+).
+ * 
+ * secretKeyFactory fails in setup where the JVM has no
+ * PBKDF2WithHmacSHA256, the other results are unaffected.
+ * 
+ * @author braiden
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HmacSha256BackendBenchmark {
+
+	public static final String SECRET_KEY_FACTORY_ALGORITHM = "PBKDF2WithHmacSHA256";
+	
+	@Param({"8192"})
+	public int iterations;
+	
+	@Param({"32"})
+	public int keyLengthBytes;
+	
+	private PBKDF2KeyGenerator macGenerator;
+	private PBKDF2KeyGenerator padStateGenerator;
+	private PBKDF2KeyGenerator intStateGenerator;
+	private byte[] salt;
+	
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		macGenerator = new PBKDF2KeyGenerator(keyLengthBytes, iterations, "HMACSHA256", false);
+		padStateGenerator = new PBKDF2KeyGenerator(keyLengthBytes, iterations, "HMACSHA256", true);
+		intStateGenerator = new HmacSha256PBKDF2KeyGenerator(keyLengthBytes, iterations);
+		salt = BenchmarkData.SALT.getBytes();
+	}
+	
+	@Benchmark
+	public byte[] mac() throws GeneralSecurityException {
+		return macGenerator.generateKey(BenchmarkData.PASSPHRASE, salt);
+	}
+	
+	@Benchmark
+	public byte[] padStates() throws GeneralSecurityException {
+		return padStateGenerator.generateKey(BenchmarkData.PASSPHRASE, salt);
+	}
+	
+	@Benchmark
+	public byte[] intState() throws GeneralSecurityException {
+		return intStateGenerator.generateKey(BenchmarkData.PASSPHRASE, salt);
+	}
+	
+	@Benchmark
+	public byte[] secretKeyFactory(SecretKeyFactoryState state) throws GeneralSecurityException {
+		PBEKeySpec spec = new PBEKeySpec(BenchmarkData.PASSPHRASE.toCharArray(), salt, iterations, keyLengthBytes * 8);
+		try {
+			return state.factory.generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+	}
+	
+	/**
+	 * Separate state, so a missing algorithm only fails
+	 * the secretKeyFactory benchmark.
+	 */
+	@State(Scope.Thread)
+	public static class SecretKeyFactoryState {
+		
+		SecretKeyFactory factory;
+		
+		@Setup
+		public void setup() throws NoSuchAlgorithmException {
+			factory = SecretKeyFactory.getInstance(SECRET_KEY_FACTORY_ALGORITHM);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,88 @@
+package org.braiden.fpm2.bench;
+
+/*
+ * Copyright (c) 2010 Braiden Kindt
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ *  OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ *  HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ *  WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ *  FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ *  OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.braiden.fpm2.crypto.PBKDF2KeyGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of PBKDF2KeyGenerator.generateKey() across HMACs,
+ * iteration counts and key lengths, with and without precomputed
+ * pad states. Run with "-prof gc" for allocation rate.
+ * 
+ * @author braiden
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PBKDF2KeyGeneratorBenchmark {
+
+	@Param({"HMACSHA1", "HMACSHA256", "HMACSHA512"})
+	public String hmac;
+	
+	@Param({"1024", "8192"})
+	public int iterations;
+	
+	@Param({"16", "32", "64"})
+	public int keyLengthBytes;
+	
+	@Param({"false", "true"})
+	public boolean precomputePads;
+	
+	private PBKDF2KeyGenerator keyGenerator;
+	private byte[] salt;
+	
+	@Setup
+	public void setup() throws GeneralSecurityException {
+		keyGenerator = new PBKDF2KeyGenerator(keyLengthBytes, iterations, hmac, precomputePads);
+		salt = BenchmarkData.SALT.getBytes();
+	}
+	
+	@Benchmark
+	public byte[] generateKey() throws GeneralSecurityException {
+		return keyGenerator.generateKey(BenchmarkData.PASSPHRASE, salt);
+	}
+	
+}
@@ -199,6 +199,33 @@ public class FpmApplicationTest extends InstrumentationTestCase implements FpmBr
 		receiver.unregister();
 	}
 	
+	public void testCoalesceUnlock() throws Throwable {
+		resetEventCounts();
+		FpmBroadcastReceiver receiver = new FpmBroadcastReceiver(getFpmApplication(), FpmApplicationTest.this);
+		
+		// second request for same passphrase joins the first
+		unlockFpmDatabase("password");
+		unlockFpmDatabaseSync("password");
+		assertEquals(FpmApplication.STATE_UNLOCKED, getFpmApplication().getCryptState());
+		synchronized (this) {
+			assertEquals(1, eventFpmUnlock);
+			assertEquals(0, eventFpmError);
+		}
+		lockFpmDatabaseSync();
+		
+		// a different passphrase replaces the running unlock
+		resetEventCounts();
+		unlockFpmDatabase("THIS_IS_THE_WRONG_PASSPHRASE");
+		unlockFpmDatabaseSync("password");
+		assertEquals(FpmApplication.STATE_UNLOCKED, getFpmApplication().getCryptState());
+		synchronized (this) {
+			assertEquals(1, eventFpmUnlock);
+			assertEquals(0, eventFpmError);
+		}
+		
+		receiver.unregister();
+	}
+	
 	public void testAutoLock() throws Throwable {
 		unlockFpmDatabaseSync("password");
 		assertTrue(getFpmApplication().isCryptOpen());
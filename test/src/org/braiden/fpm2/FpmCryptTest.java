@@ -1,6 +1,23 @@
 package org.braiden.fpm2;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.braiden.fpm2.FpmCrypt.FpmPassphraseInvalidException;
+import org.braiden.fpm2.FpmCrypt.OpenResult;
+import org.braiden.fpm2.crypto.CryptoProviderSelector;
+import org.braiden.fpm2.crypto.DerivedKey;
+import org.braiden.fpm2.crypto.TableAESFpmCipher;
+import org.braiden.fpm2.model.KeyInfo;
+import org.braiden.fpm2.model.LauncherItem;
 import org.braiden.fpm2.model.PasswordItem;
+import org.braiden.fpm2.util.OperationCanceledException;
+import org.braiden.fpm2.util.ProgressMonitor;
 import static android.test.MoreAsserts.*;
 
 import android.test.InstrumentationTestCase;
@@ -23,5 +40,285 @@ public class FpmCryptTest extends InstrumentationTestCase {
 		assertEquals("Web", item.getLauncher());
 		assertContentsInOrder(fpmCrypt.getCategories(), (Object[]) new String[] {"Banking", "Blog", "Linux"});
 	}
+	
+	public void testOpenAll() throws Exception {
+		List<InputStream> inputStreams = new ArrayList<InputStream>();
+		inputStreams.add(getInstrumentation().getContext().getAssets().open("fpm.xml"));
+		inputStreams.add(getInstrumentation().getContext().getAssets().open("fpm.xml"));
+		inputStreams.add(new ByteArrayInputStream("<FPM".getBytes()));
+		List<OpenResult> results = FpmCrypt.openAll(inputStreams, "secret", 2);
+		assertEquals(3, results.size());
+		for (int n = 0; n < 2; n++) {
+			assertTrue(results.get(n).isSuccess());
+			PasswordItem item = results.get(n).getFpmCrypt().getFpmFile().getPasswordItems().get(0);
+			assertEquals("Entry1", item.getTitle());
+			assertEquals("password", results.get(n).getFpmCrypt().decrypt(item.getPassword()));
+		}
+		assertFalse(results.get(2).isSuccess());
+		assertNotNull(results.get(2).getException());
+	}
+	
+	public void testOpenTableAES() throws Exception {
+		FpmCrypt jceCrypt = new FpmCrypt();
+		jceCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret");
+		FpmCrypt tableCrypt = new FpmCrypt();
+		try {
+			CryptoProviderSelector.setCipherProvider(TableAESFpmCipher.PROVIDER_NAME);
+			tableCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret");
+		} finally {
+			CryptoProviderSelector.setCipherProvider(null);
+		}
+		List<PasswordItem> expected = jceCrypt.getFpmFile().getPasswordItems();
+		List<PasswordItem> actual = tableCrypt.getFpmFile().getPasswordItems();
+		assertEquals(expected.size(), actual.size());
+		for (int n = 0; n < expected.size(); n++) {
+			assertEquals(expected.get(n).getTitle(), actual.get(n).getTitle());
+			assertEquals(expected.get(n).getUser(), actual.get(n).getUser());
+			assertEquals(expected.get(n).getNotes(), actual.get(n).getNotes());
+			assertEquals(jceCrypt.decrypt(expected.get(n).getPassword()), tableCrypt.decrypt(actual.get(n).getPassword()));
+		}
+		assertEquals(jceCrypt.getCategories(), tableCrypt.getCategories());
+	}
+	
+	public void testOpenProgress() throws Exception {
+		FpmCrypt fpmCrypt = new FpmCrypt();
+		RecordingMonitor monitor = new RecordingMonitor(2.0f);
+		fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret", monitor);
+		List<Float> progress = monitor.getProgress();
+		assertTrue(progress.contains(FpmCrypt.PROGRESS_KEY_GENERATED));
+		assertEquals(1.0f, progress.get(progress.size() - 1), 0.0f);
+		for (int n = 1; n < progress.size(); n++) {
+			assertTrue(progress.get(n) >= progress.get(n - 1));
+		}
+		fpmCrypt.close();
+	}
+	
+	public void testOpenCanceled() throws Exception {
+		// while parsing, generating the key, and decrypting
+		float[] cancelAfter = { -1.0f, FpmCrypt.PROGRESS_PARSED, FpmCrypt.PROGRESS_KEY_GENERATED };
+		for (float progress : cancelAfter) {
+			FpmCrypt fpmCrypt = new FpmCrypt();
+			try {
+				fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret",
+						new RecordingMonitor(progress));
+				fail();
+			} catch (OperationCanceledException e) {
+				// expected
+			}
+			assertNull(fpmCrypt.getFpmFile());
+		}
+	}
+	
+	/**
+	 * Records progress, canceled once progress passes cancelAfter.
+	 * open() reports from the key generation thread too.
+	 */
+	private static class RecordingMonitor extends ProgressMonitor {
+		private final float cancelAfter;
+		private final List<Float> progress = new ArrayList<Float>();
+		
+		public RecordingMonitor(float cancelAfter) {
+			this.cancelAfter = cancelAfter;
+		}
+		
+		@Override
+		public synchronized void setProgress(float fraction) {
+			progress.add(fraction);
+		}
+		
+		@Override
+		public synchronized boolean isCanceled() {
+			return progress.isEmpty() ? cancelAfter < 0.0f : progress.get(progress.size() - 1) > cancelAfter;
+		}
+		
+		public synchronized List<Float> getProgress() {
+			return new ArrayList<Float>(progress);
+		}
+	}
+	
+	public void testKeyGenerationCancel() throws Exception {
+		final CountDownLatch isGenerating = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final byte[] key = { 1, 2, 3, 4 };
+		// every key handed to KeyGeneration
+		final List<byte[]> keys = new ArrayList<byte[]>();
+		// findKey() stands in for key generation, held until released
+		FpmCrypt fpmCrypt = new FpmCrypt() {
+			@Override
+			protected byte[] findKey(String password, String salt, String kdf, DerivedKey derivedKey) {
+				isGenerating.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] result = key.clone();
+				keys.add(result);
+				return result;
+			}
+		};
+		KeyInfo keyInfo = new KeyInfo();
+		keyInfo.setCipher(FpmCrypt.FPM_CIPHER_AES_256);
+		keyInfo.setSalt("kohamnllcnepbdnk");
+		
+		// canceled while generating, the task wipes it
+		FpmCrypt.KeyGeneration keyGeneration = fpmCrypt.new KeyGeneration("secret", null, ProgressMonitor.NULL);
+		keyGeneration.onKeyInfo(keyInfo);
+		isGenerating.await();
+		keyGeneration.cancel();
+		release.countDown();
+		try {
+			keyGeneration.getKey();
+			fail();
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+		assertEquals(1, keys.size());
+		assertTrue(Arrays.equals(new byte[key.length], keys.get(0)));
+		
+		// canceled once generated, cancel() wipes it
+		keyGeneration = fpmCrypt.new KeyGeneration("secret", null, ProgressMonitor.NULL);
+		keyGeneration.onKeyInfo(keyInfo);
+		byte[] generated = keyGeneration.getKey();
+		assertTrue(Arrays.equals(key, generated));
+		keyGeneration.cancel();
+		assertTrue(Arrays.equals(new byte[key.length], generated));
+	}
+	
+	public void testOpenParallel() throws Exception {
+		// enough items for several batches to run at once
+		byte[] fpmXml = createLargeFpmXml(200);
+		assertTrue(200 * 3 > 4 * FpmCrypt.DECRYPT_BATCH_ITEMS);
+		FpmCrypt serialCrypt = new UnverifiedFpmCrypt();
+		serialCrypt.open(new ByteArrayInputStream(fpmXml), "secret");
+		FpmCrypt parallelCrypt = new UnverifiedFpmCrypt();
+		parallelCrypt.setDecryptThreads(4);
+		parallelCrypt.open(new ByteArrayInputStream(fpmXml), "secret");
+		List<PasswordItem> expected = serialCrypt.getFpmFile().getPasswordItems();
+		List<PasswordItem> actual = parallelCrypt.getFpmFile().getPasswordItems();
+		assertEquals(600, actual.size());
+		assertEquals(expected.size(), actual.size());
+		for (int n = 0; n < expected.size(); n++) {
+			assertEquals(expected.get(n).getTitle(), actual.get(n).getTitle());
+			assertEquals(expected.get(n).getUrl(), actual.get(n).getUrl());
+			assertEquals(expected.get(n).getNotes(), actual.get(n).getNotes());
+		}
+		assertEquals("Entry1", actual.get(597).getTitle());
+		assertEquals(serialCrypt.getFpmFile().getLauncherItems().get(0).getCmdline(),
+				parallelCrypt.getFpmFile().getLauncherItems().get(0).getCmdline());
+		
+		// pool is reused by a second open
+		parallelCrypt.close();
+		parallelCrypt.open(new ByteArrayInputStream(fpmXml), "secret");
+		assertEquals("Entry1", parallelCrypt.getFpmFile().getPasswordItems().get(0).getTitle());
+		parallelCrypt.close();
+		serialCrypt.close();
+	}
+	
+	/**
+	 * fpm.xml with its password items repeated copies times.
+	 */
+	private byte[] createLargeFpmXml(int copies) throws Exception {
+		InputStream is = getInstrumentation().getContext().getAssets().open("fpm.xml");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n = is.read(buffer); n >= 0; n = is.read(buffer)) {
+			os.write(buffer, 0, n);
+		}
+		is.close();
+		String xml = os.toString("UTF-8");
+		int start = xml.indexOf("<PasswordList>") + "<PasswordList>".length();
+		int end = xml.indexOf("</PasswordList>");
+		StringBuilder result = new StringBuilder(xml.substring(0, start));
+		for (int n = 0; n < copies; n++) {
+			result.append(xml.substring(start, end));
+		}
+		result.append(xml.substring(end));
+		return result.toString().getBytes("UTF-8");
+	}
+	
+	/**
+	 * Repeated items no longer match the file's vstring.
+	 */
+	private static class UnverifiedFpmCrypt extends FpmCrypt {
+		@Override
+		protected boolean verifyVstring() {
+			return true;
+		}
+	}
+	
+	public void testOpenOptimistic() throws Exception {
+		FpmCrypt fpmCrypt = new FpmCrypt();
+		fpmCrypt.setLazyDecryption(true);
+		fpmCrypt.setOptimisticVerify(true);
+		try {
+			fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "wrong");
+			fail();
+		} catch (FpmPassphraseInvalidException e) {
+			// rejected by checkStructure()
+		}
+		
+		fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret");
+		assertFalse(fpmCrypt.isVerified());
+		assertEquals("Entry1", fpmCrypt.getFpmFile().getPasswordItems().get(0).getTitle());
+		fpmCrypt.verify(ProgressMonitor.NULL);
+		assertTrue(fpmCrypt.isVerified());
+		assertContentsInOrder(fpmCrypt.getCategories(), (Object[]) new String[] {"Banking", "Blog", "Linux"});
+	}
+	
+	public void testCheckStructure() throws Exception {
+		FpmCrypt fpmCrypt = new FpmCrypt();
+		fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret");
+		// 15 and 30 characters, FPM gives these an extra block
+		List<PasswordItem> items = new ArrayList<PasswordItem>();
+		for (String text : new String[] {"ssh.braiden.org", "https://ssh.braiden.org/login/"}) {
+			assertEquals(15 * items.size() + 15, text.length());
+			PasswordItem item = new PasswordItem();
+			for (int field = 1; field <= PasswordItem.ALL_FIELDS; field <<= 1) {
+				item.setField(field, fpmCrypt.encrypt(text));
+			}
+			items.add(item);
+		}
+		fpmCrypt.getFpmFile().setPasswordItems(items);
+		assertEquals(FpmCrypt.STRUCTURE_CHECK_FIELDS, fpmCrypt.checkStructure());
+		
+		// padded more than FPM pads it
+		items.get(0).setField(PasswordItem.FIELD_TITLE, fpmCrypt.encryptPassword("ssh.braiden.org"));
+		try {
+			fpmCrypt.checkStructure();
+			fail();
+		} catch (FpmPassphraseInvalidException e) {
+			// expected
+		}
+		fpmCrypt.close();
+	}
+	
+	public void testOpenLazy() throws Exception {
+		FpmCrypt fpmCrypt = new FpmCrypt();
+		fpmCrypt.setLazyDecryption(true);
+		fpmCrypt.open(getInstrumentation().getContext().getAssets().open("fpm.xml"), "secret");
+		
+		PasswordItem item = fpmCrypt.getFpmFile().getPasswordItems().get(0);
+		assertFalse(item.isPending(PasswordItem.FIELD_TITLE));
+		assertEquals("Entry1", item.getTitle());
+		assertEquals("password", fpmCrypt.decrypt(item.getPassword()));
+		
+		LauncherItem launcher = fpmCrypt.getFpmFile().getLauncherItems().get(0);
+		assertTrue(launcher.isPending(LauncherItem.FIELD_TITLE));
+		assertEquals("Web", launcher.getTitle());
+		assertFalse(launcher.isPending(LauncherItem.FIELD_TITLE));
+		launcher.setCmdline("firefox %a");
+		assertFalse(launcher.isPending(LauncherItem.FIELD_CMDLINE));
+		assertEquals("firefox %a", launcher.getCmdline());
+		assertContentsInOrder(fpmCrypt.getCategories(), (Object[]) new String[] {"Banking", "Blog", "Linux"});
+		
+		// can't be decrypted once closed, and must stay encrypted
+		LauncherItem closedLauncher = fpmCrypt.getFpmFile().getLauncherItems().get(1);
+		fpmCrypt.close();
+		String encrypted = closedLauncher.getTitle();
+		assertTrue(closedLauncher.isPending(LauncherItem.FIELD_TITLE));
+		assertFalse("ssh".equals(encrypted));
+		assertEquals(encrypted, closedLauncher.getTitle());
+	}
 
 }
@@ -0,0 +1,56 @@
+package org.braiden.fpm2.crypto;
+
+import java.security.Security;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class CryptoProviderSelectorTest extends TestCase {
+
+	public void testSelect() throws Exception {
+		String macProvider = CryptoProviderSelector.selectMacProvider();
+		String cipherProvider = CryptoProviderSelector.selectCipherProvider();
+		assertNotNull(macProvider);
+		assertNotNull(cipherProvider);
+		assertTrue(HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME.equals(macProvider) || Security.getProvider(macProvider) != null);
+		assertTrue(TableAESFpmCipher.PROVIDER_NAME.equals(cipherProvider) || Security.getProvider(cipherProvider) != null);
+		assertTrue(CryptoProviderSelector.timeMac("NoSuchProvider") < 0);
+		assertTrue(CryptoProviderSelector.timeCipher("NoSuchProvider") < 0);
+		assertTrue(CryptoProviderSelector.timeTableCipher() >= 0);
+		assertTrue(CryptoProviderSelector.timeMacEngine() >= 0);
+	}
+	
+	public void testSelectedProviderGeneratesSameKey() throws Exception {
+		String macProvider = CryptoProviderSelector.selectMacProvider();
+		FpmKeyGenerator defaultGenerator = new PBKDF2FpmKeyGenerator();
+		FpmKeyGenerator selectedGenerator = new PBKDF2FpmKeyGenerator(macProvider);
+		FpmKeyGenerator engineGenerator = new PBKDF2FpmKeyGenerator(HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME);
+		assertEquals(
+				Hex.encodeHexString(defaultGenerator.generateKey("secret", "0123456789abcdef0123456789abcdef")),
+				Hex.encodeHexString(selectedGenerator.generateKey("secret", "0123456789abcdef0123456789abcdef")));
+		assertEquals(
+				Hex.encodeHexString(defaultGenerator.generateKey("secret", "0123456789abcdef0123456789abcdef")),
+				Hex.encodeHexString(engineGenerator.generateKey("secret", "0123456789abcdef0123456789abcdef")));
+	}
+	
+	public void testSetProvider() throws Exception {
+		try {
+			CryptoProviderSelector.setMacProvider("NoSuchProvider");
+			assertNull(CryptoProviderSelector.getMacProvider());
+			CryptoProviderSelector.setMacProvider(HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME);
+			assertEquals(HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME, CryptoProviderSelector.getMacProvider());
+			CryptoProviderSelector.setCipherProvider(null);
+			assertNull(CryptoProviderSelector.getCipherProvider());
+			String name = Security.getProviders()[0].getName();
+			CryptoProviderSelector.setCipherProvider(name);
+			assertEquals(name, CryptoProviderSelector.getCipherProvider());
+			CryptoProviderSelector.setCipherProvider(TableAESFpmCipher.PROVIDER_NAME);
+			assertEquals(TableAESFpmCipher.PROVIDER_NAME, CryptoProviderSelector.getCipherProvider());
+		} finally {
+			CryptoProviderSelector.setMacProvider(null);
+			CryptoProviderSelector.setCipherProvider(null);
+		}
+	}
+	
+}
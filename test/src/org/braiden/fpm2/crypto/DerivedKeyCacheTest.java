@@ -0,0 +1,46 @@
+package org.braiden.fpm2.crypto;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class DerivedKeyCacheTest extends TestCase {
+
+	private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+	
+	public void testGetPut() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(60000L);
+		assertNull(cache.get("secret", "salt", "AES-256"));
+		cache.put("secret", "salt", "AES-256", KEY);
+		assertEquals(Hex.encodeHexString(KEY), Hex.encodeHexString(cache.get("secret", "salt", "AES-256")));
+		assertNull(cache.get("Secret", "salt", "AES-256"));
+		assertNull(cache.get("secret", "salt2", "AES-256"));
+		assertNull(cache.get("secret", "salt", "null"));
+		cache.remove("secret", "salt", "AES-256");
+		assertNull(cache.get("secret", "salt", "AES-256"));
+		cache.clear();
+	}
+	
+	public void testDisabled() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache();
+		cache.put("secret", "salt", "AES-256", KEY);
+		assertTrue(cache.isEmpty());
+		assertNull(cache.get("secret", "salt", "AES-256"));
+		cache.put("secret", "salt", "AES-256", KEY, 60000L);
+		assertFalse(cache.isEmpty());
+		assertNotNull(cache.get("secret", "salt", "AES-256"));
+		cache.setTimeToLive(0L);
+		assertTrue(cache.isEmpty());
+		assertNull(cache.get("secret", "salt", "AES-256"));
+	}
+	
+	public void testExpiry() throws Exception {
+		DerivedKeyCache cache = new DerivedKeyCache(200L);
+		cache.put("secret", "salt", "AES-256", KEY);
+		assertNotNull(cache.get("secret", "salt", "AES-256"));
+		Thread.sleep(400L);
+		assertNull(cache.get("secret", "salt", "AES-256"));
+		cache.clear();
+	}
+	
+}
@@ -0,0 +1,33 @@
+package org.braiden.fpm2.crypto;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class DerivedKeyTest extends TestCase {
+
+	private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+	
+	public void testTake() throws Exception {
+		DerivedKey derivedKey = new DerivedKey("salt", "AES-256", KEY);
+		assertFalse(derivedKey.isDestroyed());
+		assertEquals(Hex.encodeHexString(KEY), Hex.encodeHexString(derivedKey.take("salt", "AES-256")));
+		assertTrue(derivedKey.isDestroyed());
+		assertNull(derivedKey.take("salt", "AES-256"));
+	}
+	
+	public void testTakeMismatch() throws Exception {
+		DerivedKey derivedKey = new DerivedKey("salt", "AES-256", KEY);
+		assertNull(derivedKey.take("salt2", "AES-256"));
+		assertTrue(derivedKey.isDestroyed());
+		assertNull(derivedKey.take("salt", "AES-256"));
+	}
+	
+	public void testDestroy() throws Exception {
+		DerivedKey derivedKey = new DerivedKey("salt", "AES-256", KEY);
+		derivedKey.destroy();
+		assertTrue(derivedKey.isDestroyed());
+		assertNull(derivedKey.take("salt", "AES-256"));
+	}
+	
+}
@@ -0,0 +1,67 @@
+package org.braiden.fpm2.crypto;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class FpmBase16Test extends TestCase {
+
+	public void testDecode() throws Exception {
+		assertEquals("Hello World.", new String(FpmBase16.decode("eigfgmgmgpcafhgphcgmgeco")));
+		
+		byte[] buffer = "xxHello.".getBytes();
+		assertEquals(2, FpmBase16.decode("fcaaxx", 0, 4, buffer, 0));
+		assertEquals("R\0Hello.", new String(buffer));
+		
+		char[] chars = "--eigfgmgmgpco--".toCharArray();
+		assertEquals(6, FpmBase16.decode(chars, 2, 12, buffer, 2));
+		assertEquals("R\0Hello.", new String(buffer));
+	}
+	
+	public void testEncode() throws Exception {
+		byte[] all = new byte[256];
+		for (int n = 0; n < all.length; n++) {
+			all[n] = (byte) n;
+		}
+		String encoded = FpmBase16.encode(all);
+		assertEquals("aaabacad", encoded.substring(0, 8));
+		assertEquals("pmpnpopp", encoded.substring(encoded.length() - 8));
+		assertEquals(new String(all, "ISO-8859-1"), new String(FpmBase16.decode(encoded), "ISO-8859-1"));
+	}
+	
+	public void testMalformed() throws Exception {
+		// 0x161 (s caron) & 0x7f is 'a'
+		String[] malformed = {"abc", "aq", "qa", "Aa", "a\u0161", "\u0161a", "a "};
+		for (String s : malformed) {
+			try {
+				FpmBase16.decode(s);
+				fail("\"" + s + "\" should be rejected.");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+	
+	public void testByteBuffer() throws Exception {
+		ByteBuffer src = ByteBuffer.allocateDirect(24);
+		src.put("eigfgmgmgpcafhgphcgmgeco".getBytes("US-ASCII"));
+		src.flip();
+		byte[] decoded = new byte[12];
+		assertEquals(12, FpmBase16.decode(src, decoded, 0));
+		assertEquals("Hello World.", new String(decoded));
+		assertFalse(src.hasRemaining());
+		
+		ByteBuffer dst = ByteBuffer.allocate(24);
+		assertEquals(24, FpmBase16.encode(decoded, 0, decoded.length, dst));
+		assertEquals("eigfgmgmgpcafhgphcgmgeco", new String(dst.array(), "US-ASCII"));
+		
+		src = ByteBuffer.wrap("aaqa".getBytes("US-ASCII"));
+		try {
+			FpmBase16.decode(src, decoded, 0);
+			fail("\"aaqa\" should be rejected.");
+		} catch (IllegalArgumentException e) {
+			assertEquals(0, src.position());
+		}
+	}
+	
+}
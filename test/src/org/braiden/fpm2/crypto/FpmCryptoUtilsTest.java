@@ -10,6 +10,15 @@ public class FpmCryptoUtilsTest extends TestCase {
 		assertEquals("Hello World.", new String(result));
 	}
 	
+	public void testFieldLength() throws Exception 
+	{
+		assertEquals(16, FpmCryptoUtils.fieldLength(0, 16));
+		assertEquals(16, FpmCryptoUtils.fieldLength(14, 16));
+		assertEquals(32, FpmCryptoUtils.fieldLength(15, 16));
+		assertEquals(32, FpmCryptoUtils.fieldLength(29, 16));
+		assertEquals(48, FpmCryptoUtils.fieldLength(30, 16));
+	}
+	
 	public void testUnrotate() throws Exception 
 	{
 		byte[] tmp = "abcdefghijklmnopqrstuvwxyz012345".getBytes();
@@ -17,4 +26,24 @@ public class FpmCryptoUtilsTest extends TestCase {
 		assertEquals("aqbrcsdteufvgwhxiyjzk0l1m2n3o4p5", new String(tmp));		
 	}
 	
+	public void testUnrotateCString() throws Exception 
+	{
+		byte[] tmp = "xxabcdefghijklmnopqrstuvwxyz012345".getBytes();
+		byte[] result = new byte[32];
+		assertEquals(32, FpmCryptoUtils.unrotateCString(tmp, 2, 32, 16, result));
+		assertEquals("aqbrcsdteufvgwhxiyjzk0l1m2n3o4p5", new String(result));
+		tmp[2 + 18] = 0;
+		assertEquals(5, FpmCryptoUtils.unrotateCString(tmp, 2, 32, 16, result));
+		assertEquals("aqbrc", new String(result, 0, 5));
+	}
+	
+	public void testRotate() throws Exception 
+	{
+		byte[] tmp = "xxaqbrcsdteufvgwhxiyjzk0l1m2n3o4p5".getBytes();
+		byte[] result = new byte[32];
+		FpmCryptoUtils.rotate(tmp, 2, 32, 16, result);
+		assertEquals("abcdefghijklmnopqrstuvwxyz012345", new String(result));
+		assertEquals("aqbrcsdteufvgwhxiyjzk0l1m2n3o4p5", new String(FpmCryptoUtils.unrotate(result, 16)));
+	}
+	
 }
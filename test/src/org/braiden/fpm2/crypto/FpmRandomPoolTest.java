@@ -0,0 +1,46 @@
+package org.braiden.fpm2.crypto;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class FpmRandomPoolTest extends TestCase {
+
+	public void testNextBytes() throws Exception {
+		CountingSecureRandom random = new CountingSecureRandom();
+		FpmRandomPool pool = new FpmRandomPool(random, 64);
+		byte[] a = new byte[20];
+		byte[] b = new byte[20];
+		pool.nextBytes(a, 0, a.length);
+		pool.nextBytes(b, 0, b.length);
+		assertEquals(1, random.calls);
+		assertFalse(Arrays.equals(a, b));
+		
+		// spans refills
+		byte[] c = new byte[200];
+		pool.nextBytes(c, 10, 150);
+		assertEquals(3, random.calls);
+		for (int n = 0; n < 10; n++) {
+			assertEquals(0, c[n]);
+		}
+		for (int n = 160; n < c.length; n++) {
+			assertEquals(0, c[n]);
+		}
+	}
+	
+	private static class CountingSecureRandom extends SecureRandom {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private int calls = 0;
+		
+		@Override
+		public synchronized void nextBytes(byte[] bytes) {
+			calls++;
+			super.nextBytes(bytes);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,47 @@
+package org.braiden.fpm2.crypto;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class HmacSha256PBKDF2KeyGeneratorTest extends TestCase {
+
+	public void testRfcVectors() throws Exception {
+		HmacSha256PBKDF2KeyGenerator kg = new HmacSha256PBKDF2KeyGenerator(32, 1);
+		assertEquals(
+				"120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b",
+				Hex.encodeHexString(kg.generateKey("password", "salt".getBytes())));
+		kg = new HmacSha256PBKDF2KeyGenerator(32, 4096);
+		assertEquals(
+				"c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a",
+				Hex.encodeHexString(kg.generateKey("password", "salt".getBytes())));
+	}
+	
+	public void testMatchesPBKDF2KeyGenerator() throws Exception {
+		String[] secrets = { "secret", "a passphrase which is longer than a single sha-256 block of sixty four bytes" };
+		String[] salts = { "", "kohamnllcnepbdnk", "a salt long enough that salt and counter span two sha-256 blocks" };
+		int[] keyLengths = { 16, 32, 80 };
+		
+		for (String secret : secrets) {
+			for (String salt : salts) {
+				for (int keyLength : keyLengths) {
+					PBKDF2KeyGenerator expected = new PBKDF2KeyGenerator(keyLength, 257, "HMACSHA256");
+					PBKDF2KeyGenerator actual = new HmacSha256PBKDF2KeyGenerator(keyLength, 257);
+					assertEquals(
+							Hex.encodeHexString(expected.generateKey(secret, salt.getBytes())),
+							Hex.encodeHexString(actual.generateKey(secret, salt.getBytes())));
+				}
+			}
+		}
+	}
+	
+	public void testFpmKeyGenerator() throws Exception {
+		PBKDF2FpmKeyGenerator kg = new PBKDF2FpmKeyGenerator(new HmacSha256PBKDF2KeyGenerator(32, 128));
+		byte[] key = kg.generateKey("password", "lmfloihibngmffkopbaobogkaamdddao");
+		assertEquals(
+				"11823a61dcb189981a600ca1c6450bde93fd4141ff67d2881160388c56388553",
+				Hex.encodeHexString(key)
+		);
+	}
+	
+}
@@ -1,5 +1,15 @@
 package org.braiden.fpm2.crypto;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.braiden.fpm2.test.Hex;
 
 import junit.framework.TestCase;
@@ -15,4 +25,182 @@ public class JCEFpmCipherTest extends TestCase {
 		assertEquals("password", result);
 	}
 	
+	public void testSession() throws Exception {
+		FpmCipher d = new JCEFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		FpmCipherSession session = d.createSession(key);
+		assertEquals("password", session.decrypt(encryptedData));
+		// cipher is reused for the next field
+		assertEquals("password", session.decrypt(encryptedData));
+		session.close();
+		try {
+			session.decrypt(encryptedData);
+			fail("Closed session should not decrypt.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	public void testSessionConcurrent() throws Exception {
+		FpmCipher d = new JCEFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		final String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		final FpmCipherSession session = d.createSession(key);
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int n = 0; n < threads.length; n++) {
+			threads[n] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int m = 0; m < 200; m++) {
+							if (!"password".equals(session.decrypt(encryptedData))) {
+								failures.incrementAndGet();
+							}
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					}
+				}
+			};
+			threads[n].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		session.close();
+		assertEquals(0, failures.get());
+	}
+	
+	public void testDecryptChars() throws Exception {
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		// one block, so rotation does nothing. "p\u00e4ss" as UTF-8, '\0' terminated
+		byte[] clear = Hex.decodeHex("70c3a473730000000000000000000000");
+		Cipher cipher = Cipher.getInstance(JCEFpmCipher.DEFAULT_CIPHER);
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+		String encryptedData = FpmBase16.encode(cipher.doFinal(clear));
+		
+		FpmCipherSession session = new JCEFpmCipher().createSession(key);
+		assertEquals("p\u00e4ss", session.decrypt(encryptedData));
+		
+		CharBuffer chars = CharBuffer.allocate(FpmBase16.decodedLength(encryptedData.length()));
+		chars.put('>');
+		assertEquals(4, session.decrypt(encryptedData, chars));
+		chars.flip();
+		assertEquals(">p\u00e4ss", chars.toString());
+		
+		CharBuffer small = CharBuffer.allocate(3);
+		try {
+			session.decrypt(encryptedData, small);
+			fail("Plain text should not fit.");
+		} catch (BufferOverflowException e) {
+			assertEquals(0, small.position());
+		}
+		session.close();
+	}
+	
+	public void testEncrypt() throws Exception {
+		FpmCipher d = new JCEFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		FpmCipherSession session = d.createSession(key);
+		String encrypted = session.encrypt("Entry1");
+		// 7 bytes, including '\0', fit one block
+		assertEquals(32, encrypted.length());
+		assertEquals("Entry1", session.decrypt(encrypted));
+		// padding is random
+		assertFalse(encrypted.equals(session.encrypt("Entry1")));
+		
+		encrypted = session.encrypt("http://braiden.org");
+		assertEquals(64, encrypted.length());
+		assertEquals("http://braiden.org", session.decrypt(encrypted));
+		
+		// FPM always leaves more than the '\0' after a full block
+		encrypted = session.encrypt("ssh.braiden.org");
+		assertEquals(64, encrypted.length());
+		assertEquals("ssh.braiden.org", session.decrypt(encrypted));
+		encrypted = session.encrypt("https://ssh.braiden.org/login/");
+		assertEquals(96, encrypted.length());
+		assertEquals("https://ssh.braiden.org/login/", session.decrypt(encrypted));
+		
+		encrypted = session.encrypt("p\u00e4ssword", 256);
+		assertEquals(512, encrypted.length());
+		assertEquals("p\u00e4ssword", d.decrypt(key, encrypted));
+		
+		assertEquals("", session.decrypt(session.encrypt("")));
+		
+		String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		assertEquals(encryptedData, d.encryptRaw(key, d.decryptRaw(key, encryptedData)));
+		try {
+			session.encryptRaw(new byte[15]);
+			fail("Data shorter than a block should be rejected.");
+		} catch (IllegalBlockSizeException e) {
+			// expected
+		}
+		session.close();
+	}
+	
+	public void testByteBuffers() throws Exception {
+		FpmCipher d = new JCEFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		byte[] expected = d.decryptRaw(key, encryptedData);
+		
+		ByteBuffer src = ByteBuffer.allocateDirect(encryptedData.length());
+		src.put(encryptedData.getBytes("US-ASCII"));
+		src.flip();
+		ByteBuffer clear = ByteBuffer.allocateDirect(expected.length);
+		assertEquals(expected.length, d.decryptRaw(key, src, clear));
+		assertFalse(src.hasRemaining());
+		clear.flip();
+		byte[] actual = new byte[clear.remaining()];
+		clear.get(actual);
+		assertTrue(Arrays.equals(expected, actual));
+		
+		clear.rewind();
+		ByteBuffer encrypted = ByteBuffer.allocateDirect(encryptedData.length());
+		assertEquals(encryptedData.length(), d.encryptRaw(key, clear, encrypted));
+		encrypted.flip();
+		byte[] encoded = new byte[encrypted.remaining()];
+		encrypted.get(encoded);
+		assertEquals(encryptedData, new String(encoded, "US-ASCII"));
+		
+		src.rewind();
+		ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+		try {
+			d.decryptRaw(key, src, small);
+			fail("Plain text should not fit.");
+		} catch (BufferOverflowException e) {
+			assertEquals(0, src.position());
+			assertEquals(0, small.position());
+		}
+	}
+	
+	public void testDecryptBatch() throws Exception {
+		FpmCipher d = new JCEFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		// enough fields for more than one cipher call
+		String[] batch = new String[2 * FpmFieldDecryptor.MAX_BATCH_BYTES / (encryptedData.length() / 2) + 1];
+		Arrays.fill(batch, encryptedData);
+		String[] result = d.decrypt(key, batch);
+		assertEquals(batch.length, result.length);
+		for (String s : result) {
+			assertEquals("password", s);
+		}
+		assertEquals(0, d.decrypt(key, new String[0]).length);
+		
+		try {
+			d.decrypt(key, new String[] {encryptedData, "abcd"});
+			fail("Field shorter than a block should be rejected.");
+		} catch (IllegalBlockSizeException e) {
+			// expected
+		}
+	}
+	
 }
@@ -8,6 +8,8 @@ import javax.crypto.spec.PBEKeySpec;
 
 import org.braiden.fpm2.crypto.PBKDF2KeyGenerator;
 import org.braiden.fpm2.test.Hex;
+import org.braiden.fpm2.util.OperationCanceledException;
+import org.braiden.fpm2.util.ProgressMonitor;
 
 
 import android.util.Log;
@@ -26,6 +28,66 @@ public class PBKDF2KeyGeneratorTest extends TestCase {
 				Hex.encodeHexString(key));
 	}
 	
+	public void testPrecomputedPads() throws Exception
+	{
+		String[] hmacs = { "HMACSHA256", "HmacSHA1" };
+		String[] secrets = { "secret", "a passphrase which is longer than a single sha-256 block of sixty four bytes" };
+		
+		for (String hmac : hmacs) {
+			for (String secret : secrets) {
+				PBKDF2KeyGenerator macKeyGenerator = new PBKDF2KeyGenerator(48, 300, hmac);
+				PBKDF2KeyGenerator padKeyGenerator = new PBKDF2KeyGenerator(48, 300, hmac, true);
+				assertTrue(padKeyGenerator.isPrecomputePads());
+				assertEquals(
+						Hex.encodeHexString(macKeyGenerator.generateKey(secret, "kohamnllcnepbdnk".getBytes())),
+						Hex.encodeHexString(padKeyGenerator.generateKey(secret, "kohamnllcnepbdnk".getBytes())));
+			}
+		}
+	}
+	
+	public void testProgressAndCancel() throws Exception
+	{
+		PBKDF2KeyGenerator[] keyGenerators = {
+				new PBKDF2KeyGenerator(64, 1024, "HMACSHA256"),
+				new PBKDF2KeyGenerator(64, 1024, "HMACSHA256", true),
+				new HmacSha256PBKDF2KeyGenerator(64, 1024),
+		};
+		
+		for (PBKDF2KeyGenerator keyGenerator : keyGenerators) {
+			final float[] progress = { 0.0f };
+			keyGenerator.generateKey("secret", "salt".getBytes(), new ProgressMonitor() {
+				@Override
+				public void setProgress(float fraction) {
+					assertTrue(fraction >= progress[0]);
+					progress[0] = fraction;
+				}
+				
+				@Override
+				public boolean isCanceled() {
+					return false;
+				}
+			});
+			assertTrue(progress[0] > 0.9f && progress[0] <= 1.0f);
+			
+			try {
+				keyGenerator.generateKey("secret", "salt".getBytes(), new ProgressMonitor() {
+					@Override
+					public void setProgress(float fraction) {
+						progress[0] = fraction;
+					}
+					
+					@Override
+					public boolean isCanceled() {
+						return progress[0] >= 0.25f;
+					}
+				});
+				fail("Key generation was not canceled.");
+			} catch (OperationCanceledException e) {
+				assertTrue(progress[0] < 0.5f);
+			}
+		}
+	}
+	
 	public void testHmacSha1() throws Exception
 	{
 		SecretKeyFactory javaSha1KeyFactory = null;
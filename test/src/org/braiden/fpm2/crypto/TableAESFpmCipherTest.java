@@ -0,0 +1,74 @@
+package org.braiden.fpm2.crypto;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class TableAESFpmCipherTest extends TestCase {
+
+	public void testFips197() throws Exception {
+		// FIPS-197 appendix C.1 and C.3
+		byte[] data = Hex.decodeHex("69c4e0d86a7b0430d8cdb78070b4c55a");
+		new TableAESDecryptor(Hex.decodeHex("000102030405060708090a0b0c0d0e0f")).decryptBlocks(data, 0, data.length);
+		assertEquals("00112233445566778899aabbccddeeff", Hex.encodeHexString(data));
+		
+		data = Hex.decodeHex("8ea2b7ca516745bfeafc49904b496089");
+		new TableAESDecryptor(Hex.decodeHex("000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f")).decryptBlocks(data, 0, data.length);
+		assertEquals("00112233445566778899aabbccddeeff", Hex.encodeHexString(data));
+	}
+	
+	public void testMatchesJCE() throws Exception {
+		Random random = new Random(0);
+		byte[] key = new byte[32];
+		byte[] data = new byte[1024];
+		for (int n = 0; n < 8; n++) {
+			random.nextBytes(key);
+			random.nextBytes(data);
+			Cipher cipher = Cipher.getInstance(JCEFpmCipher.DEFAULT_CIPHER);
+			cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"));
+			byte[] expected = cipher.doFinal(data);
+			new TableAESDecryptor(key).decryptBlocks(data, 0, data.length);
+			assertTrue(Arrays.equals(expected, data));
+		}
+	}
+	
+	public void testDecrypt() throws Exception {
+		FpmCipher d = new TableAESFpmCipher();
+		
+		byte[] key = Hex.decodeHex("e9275c4bd60c2dbabb98b7d822e6f0d123e99ad1c7d3b22e37c9fd49843afa15");
+		String encryptedData = "clkpkceijlnlicakdnkjfmnempafacapcdcfpgjcmfnkifkicnlhmgnjgcbabmdgneodljhllcdkngfmleipbboncnjdbbaijbhnbibojcnpeogbfelegoffchjjegpcebbfodhlepnliklhgdgmbfllfdldadlbjkklkmhhhhdpndcpgaljfabkgcnaafblpbdnbdofaakadffbolcfghohjpknfoimgehoehllijcahdjdacbhodnomonhkedognmimnpmmncaodelhnadmejcialembkoimgnglkhffkpgelcimajbmkibhiloeibnaphjjhndmganiocendcibcmcnlolpgfpdfihdbocfmbicjgggicgceliglmpignllmfjdfcoknegjfgjepbfbofngfpplmifdfnaidjlhdifandhabhlbnbkijcffmlpdofjkdbhkikflaafbeadjhidpeokjnaipaidnigkgafojjnppjpbhbgponiebhc";
+		assertEquals("password", d.decrypt(key, encryptedData));
+		assertTrue(Arrays.equals(new JCEFpmCipher().decryptRaw(key, encryptedData), d.decryptRaw(key, encryptedData)));
+		
+		FpmCipherSession session = d.createSession(key);
+		assertEquals("password", session.decrypt(encryptedData));
+		assertEquals("secret", session.decrypt(session.encrypt("secret")));
+		String[] result = session.decrypt(new String[] {encryptedData, encryptedData});
+		assertEquals("password", result[0]);
+		assertEquals("password", result[1]);
+		session.close();
+		try {
+			session.decrypt(encryptedData);
+			fail("Closed session should not decrypt.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	public void testBadKey() throws Exception {
+		try {
+			new TableAESDecryptor(new byte[20]);
+			fail("20 byte key should be rejected.");
+		} catch (InvalidKeyException e) {
+			// expected
+		}
+	}
+	
+}
@@ -0,0 +1,47 @@
+package org.braiden.fpm2.crypto;
+
+import org.braiden.fpm2.test.Hex;
+
+import junit.framework.TestCase;
+
+public class WrappedKeyTest extends TestCase {
+
+	private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+	
+	public void testUnwrap() throws Exception {
+		WrappedKey wrappedKey = new WrappedKey(KEY, "1234", 3);
+		assertEquals(Hex.encodeHexString(KEY), Hex.encodeHexString(wrappedKey.unwrap("1234")));
+		assertFalse(Hex.encodeHexString(KEY).equals(Hex.encodeHexString(wrappedKey.unwrap("4321"))));
+		assertEquals(1, wrappedKey.getAttemptsRemaining());
+		wrappedKey.resetAttempts();
+		assertEquals(3, wrappedKey.getAttemptsRemaining());
+		assertEquals(Hex.encodeHexString(KEY), Hex.encodeHexString(wrappedKey.unwrap("1234")));
+	}
+	
+	public void testUnwrapMacEngine() throws Exception {
+		try {
+			CryptoProviderSelector.setMacProvider(HmacSha256PBKDF2KeyGenerator.PROVIDER_NAME);
+			WrappedKey wrappedKey = new WrappedKey(KEY, "1234", 3);
+			assertEquals(Hex.encodeHexString(KEY), Hex.encodeHexString(wrappedKey.unwrap("1234")));
+		} finally {
+			CryptoProviderSelector.setMacProvider(null);
+		}
+	}
+	
+	public void testAttemptLimit() throws Exception {
+		WrappedKey wrappedKey = new WrappedKey(KEY, "1234", 2);
+		assertNotNull(wrappedKey.unwrap("0000"));
+		assertNotNull(wrappedKey.unwrap("1111"));
+		assertNull(wrappedKey.unwrap("1234"));
+		assertTrue(wrappedKey.isDestroyed());
+	}
+	
+	public void testIdle() throws Exception {
+		WrappedKey wrappedKey = new WrappedKey(KEY, "1234", 3);
+		assertFalse(wrappedKey.isIdle(60000L));
+		assertTrue(wrappedKey.isIdle(0L));
+		wrappedKey.destroy();
+		assertNull(wrappedKey.unwrap("1234"));
+	}
+	
+}
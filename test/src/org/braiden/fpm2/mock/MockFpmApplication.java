@@ -41,5 +41,10 @@ public class MockFpmApplication extends FpmApplication {
 	public void openCrypt(String passphrase) {
 		isOpen = true;
 	}
+	
+	@Override
+	public void openCrypt(String passphrase, String pin) {
+		isOpen = true;
+	}
 		
 }
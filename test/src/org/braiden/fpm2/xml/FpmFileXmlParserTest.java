@@ -1,8 +1,12 @@
 package org.braiden.fpm2.xml;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.braiden.fpm2.model.FpmFile;
+import org.braiden.fpm2.model.KeyInfo;
+import org.braiden.fpm2.xml.FpmFileXmlParser.KeyInfoListener;
 
 import android.test.InstrumentationTestCase;
 
@@ -45,4 +49,16 @@ public class FpmFileXmlParserTest extends InstrumentationTestCase {
 		assertFalse(fpm.getPasswordItems().get(1).isDefault());		
 	}
 	
+	public void testKeyInfoListener() throws Exception {
+		final List<String> salts = new ArrayList<String>();
+		InputStream is = getInstrumentation().getContext().getAssets().open("fpm.xml");
+		FpmFile fpm = FpmFileXmlParser.parse(is, new KeyInfoListener() {
+			public void onKeyInfo(KeyInfo keyInfo) {
+				salts.add(keyInfo.getSalt());
+			}
+		});
+		assertEquals(1, salts.size());
+		assertEquals(fpm.getKeyInfo().getSalt(), salts.get(0));
+	}
+	
 }